@@ -0,0 +1,168 @@
+package com.kakarotabhi.idmclone.benchmark;
+
+import com.kakarotabhi.idmclone.downloader.BlockChecksums;
+import com.kakarotabhi.idmclone.downloader.BufferPool;
+import com.kakarotabhi.idmclone.downloader.DownloadFile;
+import com.kakarotabhi.idmclone.downloader.SegmentDownloader;
+import com.kakarotabhi.idmclone.downloader.SegmentProgress;
+import com.kakarotabhi.idmclone.downloader.TransferBuffer;
+import com.kakarotabhi.idmclone.task.SegmentInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies a file from the loopback {@link RangeServer} to disk, split into
+ * {@code connections} ranges, at different transfer buffer sizes.
+ * <p>
+ * {@code segmentDownloader} runs {@link SegmentDownloader} as is; {@code segmentLoop} runs
+ * the per-chunk steps of {@code DownloadService.downloadSegment} (reserve, block checksum,
+ * positional write, advance) without the database and bandwidth limits around them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyLoopBenchmark {
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+
+    @Param({"8192", "65536", "262144", "1048576"})
+    public int bufferSize;
+
+    @Param({"1", "4"})
+    public int connections;
+
+    private RangeServer server;
+    private HttpClient client;
+    private ExecutorService executor;
+    private BufferPool bufferPool;
+    private Path target;
+    private DownloadFile file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new RangeServer(FILE_SIZE);
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        bufferPool = new BufferPool(bufferSize, connections);
+        target = Files.createTempFile("idm-bench", ".bin");
+        file = new DownloadFile(target);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        file.close();
+        Files.deleteIfExists(target);
+        executor.shutdownNow();
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public long segmentDownloader() throws InterruptedException {
+        AtomicLong bytes = new AtomicLong();
+        AtomicBoolean error = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(connections);
+        for (long[] range : ranges()) {
+            SegmentInfo segment = new SegmentInfo(0, range[0], range[1]);
+            executor.submit(new SegmentDownloader(client, server.uri(), file, segment, bufferPool, bytes, error, done));
+        }
+        done.await();
+        if (error.get()) {
+            throw new IllegalStateException("Segment transfer failed");
+        }
+        return bytes.get();
+    }
+
+    @Benchmark
+    public long segmentLoop() throws Exception {
+        BlockChecksums checksums = new BlockChecksums(1024 * 1024, FILE_SIZE);
+        List<Future<Long>> futures = new ArrayList<>();
+        int index = 0;
+        for (long[] range : ranges()) {
+            SegmentProgress progress = new SegmentProgress((long) index, index++, range[0], range[1], range[0]);
+            futures.add(executor.submit(() -> copy(progress, checksums)));
+        }
+        long total = 0;
+        for (Future<Long> future : futures) {
+            total += future.get();
+        }
+        return total;
+    }
+
+    private long copy(SegmentProgress progress, BlockChecksums blocks) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(server.uri())
+                .header("Range", "bytes=" + progress.getFrontier() + "-" + progress.getEndByte())
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        SegmentProgress.Writer writer = progress.attach(progress.getFrontier(), false);
+        BlockChecksums.Tracker checksums = blocks.tracker(); // one per writer, like the service
+        TransferBuffer buffer = bufferPool.acquire();
+        long copied = 0;
+        try (InputStream input = response.body()) {
+            long cursor = progress.getFrontier();
+            int bytesRead;
+            while ((bytesRead = buffer.fill(input)) != -1) {
+                int allowed = progress.reserve(cursor, bytesRead);
+                if (allowed > 0) {
+                    ByteBuffer chunk = buffer.buffer();
+                    chunk.limit(allowed);
+                    checksums.update(chunk, cursor);
+                    file.write(chunk, cursor);
+                    cursor += allowed;
+                    copied += progress.advance(writer, cursor, Long.MAX_VALUE);
+                }
+                if (allowed < bytesRead) {
+                    break;
+                }
+            }
+        } finally {
+            bufferPool.release(buffer);
+            progress.detach(writer);
+        }
+        return copied;
+    }
+
+    private List<long[]> ranges() {
+        List<long[]> ranges = new ArrayList<>();
+        long size = FILE_SIZE / connections;
+        for (int i = 0; i < connections; i++) {
+            long start = i * size;
+            long end = i == connections - 1 ? FILE_SIZE - 1 : start + size - 1;
+            ranges.add(new long[]{start, end});
+        }
+        return ranges;
+    }
+}
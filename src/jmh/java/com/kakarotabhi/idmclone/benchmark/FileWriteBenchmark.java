@@ -0,0 +1,97 @@
+package com.kakarotabhi.idmclone.benchmark;
+
+import com.kakarotabhi.idmclone.downloader.DownloadFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the same bytes at ascending offsets with {@link RandomAccessFile} (seek + heap
+ * array), a plain {@link FileChannel} (positional, direct buffer) and {@link DownloadFile},
+ * which is what the segment loop uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileWriteBenchmark {
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+
+    @Param({"8192", "65536", "1048576"})
+    public int chunkSize;
+
+    private byte[] heap;
+    private ByteBuffer direct;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        heap = new byte[chunkSize];
+        new Random(42).nextBytes(heap);
+        direct = ByteBuffer.allocateDirect(chunkSize);
+        direct.put(heap).flip();
+        target = Files.createTempFile("idm-bench", ".bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public long randomAccessFile() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(target.toFile(), "rw")) {
+            for (long position = 0; position < FILE_SIZE; position += chunkSize) {
+                file.seek(position);
+                file.write(heap, 0, chunkSize);
+            }
+            return file.length();
+        }
+    }
+
+    @Benchmark
+    public long fileChannel() throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            for (long position = 0; position < FILE_SIZE; position += chunkSize) {
+                ByteBuffer chunk = direct.duplicate();
+                while (chunk.hasRemaining()) {
+                    position += channel.write(chunk, position);
+                }
+                position -= chunkSize;
+            }
+            return channel.size();
+        }
+    }
+
+    @Benchmark
+    public long downloadFile() throws IOException {
+        try (DownloadFile file = new DownloadFile(target)) {
+            for (long position = 0; position < FILE_SIZE; position += chunkSize) {
+                file.write(direct.duplicate(), position);
+            }
+            return Files.size(target);
+        }
+    }
+}
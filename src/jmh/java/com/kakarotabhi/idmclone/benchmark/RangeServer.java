@@ -0,0 +1,75 @@
+package com.kakarotabhi.idmclone.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loopback HTTP server answering HEAD and ranged GET requests for one in-memory file,
+ * so the benchmarks measure our copy path and not a remote host.
+ */
+public class RangeServer implements AutoCloseable {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final byte[] data;
+    private final HttpServer server;
+
+    public RangeServer(int size) throws IOException {
+        this.data = new byte[size];
+        new Random(42).nextBytes(data);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    public URI uri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/file.bin");
+    }
+
+    public int size() {
+        return data.length;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(data.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        int start = 0;
+        int end = data.length - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            Matcher m = RANGE.matcher(range);
+            if (m.matches()) {
+                start = Integer.parseInt(m.group(1));
+                if (!m.group(2).isEmpty()) {
+                    end = Math.min(end, Integer.parseInt(m.group(2)));
+                }
+                status = 206;
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+            }
+        }
+        exchange.sendResponseHeaders(status, end - start + 1);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data, start, end - start + 1);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
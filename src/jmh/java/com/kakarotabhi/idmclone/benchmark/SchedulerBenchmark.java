@@ -0,0 +1,72 @@
+package com.kakarotabhi.idmclone.benchmark;
+
+import com.kakarotabhi.idmclone.service.SegmentScheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of queueing, dispatching and finishing segment jobs in {@link SegmentScheduler} when
+ * thousands of segments are waiting at once. The jobs do no I/O, so the time is the
+ * scheduler's own bookkeeping plus virtual thread start-up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SchedulerBenchmark {
+
+    @Param({"1000", "5000"})
+    public int segments;
+
+    // Segments are spread over this many downloads, each on its own host
+    @Param({"1", "16"})
+    public int downloads;
+
+    private SegmentScheduler scheduler;
+    private String[] urls;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = new SegmentScheduler();
+        ReflectionTestUtils.setField(scheduler, "maxConnections", 64);
+        ReflectionTestUtils.setField(scheduler, "maxPerHost", 16);
+        ReflectionTestUtils.setField(scheduler, "maxPerDownload", 8);
+        urls = new String[downloads];
+        for (int i = 0; i < downloads; i++) {
+            urls[i] = "http://host" + i + ".example/file.bin";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Benchmark
+    public int submitAndDrain() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(segments);
+        for (int i = 0; i < segments; i++) {
+            int download = i % downloads;
+            scheduler.submit((long) download, urls[download], done::countDown);
+        }
+        done.await();
+        return scheduler.getQueueDepth();
+    }
+}
@@ -0,0 +1,105 @@
+package com.kakarotabhi.idmclone.benchmark;
+
+import com.kakarotabhi.idmclone.controller.DownloadController;
+import com.kakarotabhi.idmclone.entity.Download;
+import com.kakarotabhi.idmclone.entity.SegmentInfo;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import com.kakarotabhi.idmclone.enums.SegmentStatus;
+import com.kakarotabhi.idmclone.repository.SegmentInfoRepository;
+import com.kakarotabhi.idmclone.service.DownloadService;
+import com.kakarotabhi.idmclone.service.ProgressRegistry;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DownloadController#getStatus} for a download with many segments, answered from the
+ * in-memory progress registry ({@code live}) and from the entity ({@code stored}, with the
+ * repository calls mocked away so only the aggregation is measured).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StatusBenchmark {
+    private static final long LIVE_ID = 1L;
+    private static final long STORED_ID = 2L;
+
+    @Param({"8", "128", "1024"})
+    public int segments;
+
+    private DownloadController controller;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ProgressRegistry registry = new ProgressRegistry();
+        ApplicationEventPublisher noEvents = event -> { };
+        ReflectionTestUtils.setField(registry, "events", noEvents);
+        ReflectionTestUtils.setField(registry, "windowSeconds", 10);
+
+        Download live = download(LIVE_ID);
+        registry.open(live, live.getSegments(), DownloadStatus.DOWNLOADING);
+
+        Download stored = download(STORED_ID);
+        DownloadService downloadService = Mockito.mock(DownloadService.class);
+        Mockito.when(downloadService.getDownload(STORED_ID)).thenReturn(stored);
+        SegmentInfoRepository segmentRepo = Mockito.mock(SegmentInfoRepository.class);
+        Mockito.when(segmentRepo.findByDownloadId(STORED_ID)).thenReturn(stored.getSegments());
+
+        controller = new DownloadController();
+        ReflectionTestUtils.setField(controller, "registry", registry);
+        ReflectionTestUtils.setField(controller, "downloadService", downloadService);
+        ReflectionTestUtils.setField(controller, "segmentRepo", segmentRepo);
+    }
+
+    private Download download(long id) {
+        long segmentSize = 1024 * 1024;
+        Download download = new Download();
+        download.setId(id);
+        download.setTotalBytes(segments * segmentSize);
+        download.setStatus(DownloadStatus.DOWNLOADING);
+        List<SegmentInfo> infos = new ArrayList<>();
+        for (int i = 0; i < segments; i++) {
+            SegmentInfo seg = new SegmentInfo();
+            seg.setId(id * 100_000 + i);
+            seg.setSegmentIndex(i);
+            seg.setStartByte(i * segmentSize);
+            seg.setEndByte((i + 1) * segmentSize - 1);
+            seg.setDownloadedBytes(segmentSize / 2);
+            seg.setStatus(SegmentStatus.DOWNLOADING);
+            seg.setDownload(download);
+            infos.add(seg);
+        }
+        download.setSegments(infos);
+        return download;
+    }
+
+    @Benchmark
+    public ResponseEntity<?> live() {
+        return controller.getStatus(LIVE_ID);
+    }
+
+    @Benchmark
+    public ResponseEntity<?> stored() {
+        return controller.getStatus(STORED_ID);
+    }
+}
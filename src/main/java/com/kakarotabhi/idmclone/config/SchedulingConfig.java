@@ -0,0 +1,35 @@
+package com.kakarotabhi.idmclone.config;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+/**
+ * Gives every @Scheduled task a thread of its own. Some of them wait on the database, fsync or the
+ * download service (checkpoints, queue dispatch, adaptive connections, cache sweep) and must not delay
+ * the 1s rate sampler or the bandwidth rebalance. The pool is sized from the tasks that were
+ * registered, so adding one needs no configuration change.
+ */
+@Configuration
+public class SchedulingConfig implements SchedulingConfigurer, DisposableBean {
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar registrar) {
+        int tasks = registrar.getFixedRateTaskList().size()
+                + registrar.getFixedDelayTaskList().size()
+                + registrar.getCronTaskList().size()
+                + registrar.getTriggerTaskList().size();
+        scheduler.setPoolSize(Math.max(1, tasks));
+        scheduler.setThreadNamePrefix("scheduling-");
+        scheduler.initialize();
+        registrar.setTaskScheduler(scheduler);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,56 @@
+package com.kakarotabhi.idmclone.controller;
+
+import com.kakarotabhi.idmclone.service.BandwidthGovernor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Runtime control of the bandwidth limits; rates are bytes per second and 0 means unlimited. */
+@RestController
+@RequestMapping("/downloads/bandwidth")
+public class BandwidthController {
+
+    @Autowired
+    private BandwidthGovernor governor;
+
+    // DTO for limit updates; omitted fields are left as they are
+    public static class BandwidthRequest {
+        public Long globalBytesPerSecond;
+        public Map<String, Long> hosts;
+        public Map<Long, Long> downloads;
+    }
+
+    @GetMapping
+    public ResponseEntity<?> getLimits() {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("globalBytesPerSecond", governor.getGlobalRate());
+        resp.put("globalOverridden", governor.isGlobalOverridden());
+        resp.put("hosts", governor.getHostRates());
+        resp.put("downloads", governor.getDownloadRates());
+        return ResponseEntity.ok(resp);
+    }
+
+    @PutMapping
+    public ResponseEntity<?> setLimits(@RequestBody BandwidthRequest req) {
+        if (req.globalBytesPerSecond != null) {
+            governor.setGlobalOverride(req.globalBytesPerSecond);
+        }
+        if (req.hosts != null) {
+            req.hosts.forEach(governor::setHostRate);
+        }
+        if (req.downloads != null) {
+            req.downloads.forEach(governor::setDownloadRate);
+        }
+        return getLimits();
+    }
+
+    // Go back to the configured rate and time-of-day schedule
+    @DeleteMapping("/global")
+    public ResponseEntity<?> clearGlobalOverride() {
+        governor.clearGlobalOverride();
+        return getLimits();
+    }
+}
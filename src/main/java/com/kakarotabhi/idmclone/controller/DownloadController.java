@@ -1,27 +1,59 @@
 package com.kakarotabhi.idmclone.controller;
 
+import com.kakarotabhi.idmclone.downloader.BlockBitmap;
+import com.kakarotabhi.idmclone.downloader.Checksums;
+import com.kakarotabhi.idmclone.downloader.DownloadProgress;
+import com.kakarotabhi.idmclone.downloader.SegmentProgress;
+import com.kakarotabhi.idmclone.dto.DownloadSummary;
 import com.kakarotabhi.idmclone.entity.Download;
 import com.kakarotabhi.idmclone.entity.SegmentInfo;
 import com.kakarotabhi.idmclone.enums.DownloadStatus;
-import com.kakarotabhi.idmclone.enums.SegmentStatus;
 import com.kakarotabhi.idmclone.repository.DownloadRepository;
 import com.kakarotabhi.idmclone.repository.SegmentInfoRepository;
+import com.kakarotabhi.idmclone.service.DownloadFiles;
+import com.kakarotabhi.idmclone.service.DownloadProber;
+import com.kakarotabhi.idmclone.service.DownloadQueue;
 import com.kakarotabhi.idmclone.service.DownloadService;
+import com.kakarotabhi.idmclone.service.HttpTransport;
+import com.kakarotabhi.idmclone.service.MirrorSet;
+import com.kakarotabhi.idmclone.service.PostProcessor;
+import com.kakarotabhi.idmclone.service.ProgressRegistry;
+import com.kakarotabhi.idmclone.service.ProgressStream;
+import com.kakarotabhi.idmclone.service.RetryPolicy;
+import com.kakarotabhi.idmclone.service.SegmentScheduler;
+import com.kakarotabhi.idmclone.service.StallWatchdog;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.web.SortDefault;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @RestController
 @RequestMapping("/downloads")
@@ -36,69 +68,296 @@ public class DownloadController {
     @Autowired
     private SegmentInfoRepository segmentRepo;
 
+    @Autowired
+    private SegmentScheduler scheduler;
+
+    @Autowired
+    private ProgressRegistry registry;
+
+    @Autowired
+    private ProgressStream progressStream;
+
+    @Autowired
+    private DownloadQueue downloadQueue;
+
+    @Autowired
+    private DownloadProber prober;
+
+    @Autowired
+    private DownloadFiles files;
+
+    @Autowired
+    private MirrorSet mirrors;
+
+    @Autowired
+    private PostProcessor postProcessor;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RetryPolicy retryPolicy;
+
+    @Autowired
+    private StallWatchdog stallWatchdog;
+
+    @Value("${download.dir:/download/IDMClone}")
+    private String downloadDir;
+
+    // Downloads that may still write their file; a default name is not reused while one holds it
+    private static final List<DownloadStatus> UNFINISHED = List.of(DownloadStatus.PROBING, DownloadStatus.PENDING,
+            DownloadStatus.WAITING, DownloadStatus.DOWNLOADING, DownloadStatus.PAUSED);
+
+    // Default file names handed out to downloads not saved yet
+    private final Set<String> reservedNames = ConcurrentHashMap.newKeySet();
+
+    // Manifest lines stored per insert
+    private static final int INGEST_BATCH = 500;
+
     // DTO for create request
     public static class CreateDownloadRequest {
         public String url;
-        public String fileName;
+        public String fileName;     // defaults to the URL's file name in download.dir
+        public Integer connections; // fixed connection count; adaptive when omitted
+        public Integer priority;    // bandwidth share weight when the global limit is reached
+        public String checksumAlgorithm; // SHA-256, MD5 or CRC32C
+        public String checksum;          // expected value in hex; taken from the response headers when omitted
+        public List<String> mirrors;     // other URLs of the same file; ones that differ are left out
+        public List<String> postProcess; // stages run on the file as it arrives, e.g. ["extract", "sha256"]
     }
 
     @PostMapping
     public ResponseEntity<?> createDownload(@RequestBody CreateDownloadRequest req) {
         try {
-            // Step 1: Get file size using HEAD request
-            URL url = new URL(req.url);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("HEAD");
-            connection.connect();
-
-            long totalBytes = connection.getContentLengthLong();
-            if (totalBytes <= 0) {
-                return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Unable to determine file size.");
-            }
-
-            // Step 2: Create Download entity
-            Download download = new Download();
-            download.setUrl(req.url);
-            download.setFileName(req.fileName);
-            download.setStatus(DownloadStatus.PENDING);
-            download.setCreatedAt(LocalDateTime.now());
-            download.setUpdatedAt(LocalDateTime.now());
-            download.setTotalBytes(totalBytes);
-            downloadRepo.save(download);
-
-            // Step 3: Create segments
-            int segmentsCount = 8;
-            long segmentSize = totalBytes / segmentsCount;
-            for (int i = 0; i < segmentsCount; i++) {
-                long start = i * segmentSize;
-                long end = (i == segmentsCount - 1) ? totalBytes - 1 : (start + segmentSize - 1);
-
-                SegmentInfo seg = new SegmentInfo();
-                seg.setSegmentIndex(i);
-                seg.setStartByte(start);
-                seg.setEndByte(end);
-                seg.setDownloadedBytes(0);
-                seg.setStatus(SegmentStatus.PENDING);
-                seg.setDownload(download);
-                download.getSegments().add(seg);
+            Download download = create(req);
+            URI statusUri = URI.create("/downloads/" + download.getId() + "/status");
+            if (download.getStatus() != DownloadStatus.PENDING) {
+                return ResponseEntity.accepted()
+                        .header(HttpHeaders.LOCATION, statusUri.toString())
+                        .body((download.getStatus() == DownloadStatus.COMPLETED
+                                ? "Download completed from cache with ID "
+                                : "Download joined an identical transfer with ID ") + download.getId());
             }
-            downloadRepo.save(download); // cascades and saves segments
 
-            // Step 4: Start download asynchronously
-            downloadService.startDownload(download.getId());
+            // Step 4: Queue the download; it starts right away when a slot is free
+            boolean started = downloadQueue.enqueue(download);
 
             // Step 5: Return 202 Accepted with status endpoint
-            URI statusUri = URI.create("/downloads/" + download.getId() + "/status");
             return ResponseEntity.accepted()
                     .header(HttpHeaders.LOCATION, statusUri.toString())
-                    .body("Download started with ID " + download.getId());
+                    .body((started ? "Download started with ID " : "Download queued with ID ") + download.getId());
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (IOException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Failed to connect to URL: " + e.getMessage());
         }
     }
 
+    // Queue many downloads at once; each item reports its own id or error
+    @PostMapping("/batch")
+    public ResponseEntity<?> createDownloads(@RequestBody List<CreateDownloadRequest> reqs) {
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (CreateDownloadRequest req : reqs) {
+            Map<String, Object> r = new HashMap<>();
+            try {
+                r.put("url", req != null ? req.url : null);
+                Download download = create(req);
+                if (download.getStatus() == DownloadStatus.PENDING) {
+                    downloadQueue.enqueue(download);
+                }
+                r.put("downloadId", download.getId());
+                r.put("status", download.getStatus());
+                r.put("fileName", download.getFileName());
+            } catch (IllegalArgumentException e) {
+                r.put("error", e.getMessage());
+            } catch (IOException e) {
+                r.put("error", "Failed to connect to URL: " + e.getMessage());
+            }
+            results.add(r);
+        }
+        return ResponseEntity.accepted().body(results);
+    }
+
+    /**
+     * Submit a manifest: one download per line, either a URL or a JSON object like the one
+     * {@code POST /downloads} takes (application/x-ndjson). The body is read as it arrives and
+     * the ids are returned before any URL is probed; the downloads are PROBING until the
+     * background probe queues them.
+     */
+    @PostMapping("/ingest")
+    public ResponseEntity<?> ingest(InputStream body) throws IOException {
+        List<Map<String, Object>> results = new ArrayList<>();
+        List<Download> batch = new ArrayList<>();
+        List<CreateDownloadRequest> batchReqs = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        int lineNo = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNo++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Map<String, Object> r = new HashMap<>();
+            r.put("line", lineNo);
+            try {
+                CreateDownloadRequest req;
+                if (line.startsWith("{")) {
+                    req = objectMapper.readValue(line, CreateDownloadRequest.class);
+                } else {
+                    req = new CreateDownloadRequest();
+                    req.url = line;
+                }
+                r.put("url", req != null ? req.url : null);
+                Download download = newDownload(req);
+                download.setStatus(DownloadStatus.PROBING);
+                batch.add(download);
+                batchReqs.add(req);
+                r.put("download", download); // its id is known once the batch is saved
+                r.put("fileName", download.getFileName());
+            } catch (IOException | IllegalArgumentException e) {
+                r.put("error", "Invalid manifest line: " + e.getMessage());
+            }
+            results.add(r);
+            // Insert in batches; each batch starts probing while the rest of the body is read
+            if (batch.size() >= INGEST_BATCH) {
+                submit(batch, batchReqs);
+            }
+        }
+        submit(batch, batchReqs);
+        for (Map<String, Object> r : results) {
+            Object download = r.remove("download");
+            if (download != null) {
+                r.put("downloadId", ((Download) download).getId());
+            }
+        }
+        return ResponseEntity.accepted().body(results);
+    }
+
+    private void submit(List<Download> batch, List<CreateDownloadRequest> reqs) {
+        downloadRepo.saveAll(batch);
+        batch.forEach(d -> reservedNames.remove(d.getFileName()));
+        for (int i = 0; i < batch.size(); i++) {
+            prober.submit(batch.get(i).getId(), batch.get(i).getUrl(), reqs.get(i).connections);
+        }
+        batch.clear();
+        reqs.clear();
+    }
+
+    // Probe the size and range support and store the download with its segments
+    private Download create(CreateDownloadRequest req) throws IOException {
+        // Step 1: Create Download entity, rejecting a bad request before anything goes out
+        Download download = newDownload(req);
+        try {
+            // Step 2: Find what the server supports: HEAD, then a one-byte range, then a plain GET
+            HttpTransport.Probe probe = prober.probe(req.url);
+
+            // Step 3: create segments
+            return prober.prepare(download, probe, req.connections);
+        } finally {
+            reservedNames.remove(download.getFileName());
+        }
+    }
+
+    // A download for the request, not yet probed or saved
+    private Download newDownload(CreateDownloadRequest req) {
+        if (req == null || req.url == null || req.url.isBlank()) {
+            throw new IllegalArgumentException("Missing url");
+        }
+        URI url = URI.create(req.url.strip());
+        if ((!"http".equalsIgnoreCase(url.getScheme()) && !"https".equalsIgnoreCase(url.getScheme()))
+                || url.getHost() == null) {
+            throw new IllegalArgumentException("Unsupported URL: " + req.url);
+        }
+        if (req.mirrors != null && req.mirrors.stream().anyMatch(m -> m == null || m.isBlank())) {
+            throw new IllegalArgumentException("Empty mirror URL");
+        }
+        if (req.checksum != null && req.checksum.isBlank()) {
+            throw new IllegalArgumentException("Empty checksum");
+        }
+        Download download = new Download();
+        download.setUrl(req.url);
+        download.setCreatedAt(LocalDateTime.now());
+        download.setUpdatedAt(LocalDateTime.now());
+        download.setPriority(req.priority != null ? req.priority : 0);
+        if (req.checksum != null) {
+            download.setChecksumAlgorithm(Checksums.algorithm(req.checksumAlgorithm != null ? req.checksumAlgorithm : "SHA-256"));
+            download.setExpectedChecksum(req.checksum.trim().toLowerCase());
+        }
+        download.setPostProcess(postProcessor.stageList(req.postProcess));
+        if (req.mirrors != null && !req.mirrors.isEmpty()) {
+            download.setMirrors(String.join("\n", req.mirrors));
+        }
+        // Last, so a request rejected above does not hold on to a reserved name
+        download.setFileName(req.fileName != null ? req.fileName : defaultFileName(url));
+        return download;
+    }
+
+    /**
+     * Last path element of the URL inside the download directory, or a timestamped name. A name
+     * taken by a file on disk or by a download that may still write it gets a " (n)" suffix;
+     * the name is reserved until the download is saved.
+     */
+    private String defaultFileName(URI url) {
+        String path = url.getPath() != null ? url.getPath() : "";
+        String name = path.substring(path.lastIndexOf('/') + 1)
+                .replaceAll("[\\\\:*?\"<>|\\p{Cntrl}]", "_")
+                .strip();
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            name = "download-" + System.currentTimeMillis();
+        }
+        Path dir = Path.of(downloadDir).toAbsolutePath().normalize();
+        Path target = dir.resolve(name).normalize();
+        if (!dir.equals(target.getParent())) {
+            throw new IllegalArgumentException("Unsafe file name in URL: " + url);
+        }
+        // "a.tar.gz" becomes "a (1).tar.gz", so the extension still says what the file is
+        Matcher parts = Pattern.compile("(.+?)((?:\\.tar)?\\.[^.]*)?").matcher(name);
+        parts.matches();
+        String stem = parts.group(1);
+        String extension = parts.group(2) != null ? parts.group(2) : "";
+        for (int n = 1; ; n++) {
+            String candidate = target.toString();
+            if (!Files.exists(target) && !downloadRepo.existsByFileNameAndStatusIn(candidate, UNFINISHED)
+                    && reservedNames.add(candidate)) {
+                return candidate;
+            }
+            target = dir.resolve(stem + " (" + n + ")" + extension);
+        }
+    }
+
+    // Queued downloads in start order
+    @GetMapping("/queue")
+    public ResponseEntity<?> listQueue() {
+        List<Map<String, Object>> queue = new ArrayList<>();
+        for (Download download : downloadQueue.queued()) {
+            Map<String, Object> q = new HashMap<>();
+            q.put("downloadId", download.getId());
+            q.put("url", download.getUrl());
+            q.put("fileName", download.getFileName());
+            q.put("priority", download.getPriority());
+            q.put("position", queue.size());
+            queue.add(q);
+        }
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("maxActive", downloadQueue.getMaxActive());
+        resp.put("queued", queue);
+        return ResponseEntity.ok(resp);
+    }
+
+    @PutMapping("/{id}/priority")
+    public ResponseEntity<?> setPriority(@PathVariable Long id, @RequestParam int value) {
+        downloadQueue.setPriority(id, value);
+        return ResponseEntity.ok("Priority of download " + id + " set to " + value);
+    }
+
+    @PutMapping("/{id}/position")
+    public ResponseEntity<?> move(@PathVariable Long id, @RequestParam int index) {
+        downloadQueue.move(id, index);
+        return listQueue();
+    }
 
     @PutMapping("/{id}/pause")
     public ResponseEntity<?> pauseDownload(@PathVariable Long id) {
@@ -122,15 +381,24 @@ public class DownloadController {
 
     @GetMapping("/{id}/status")
     public ResponseEntity<?> getStatus(@PathVariable Long id) {
+        // Downloads the engine is tracking are answered from memory
+        DownloadProgress live = registry.get(id);
+        if (live != null) {
+            Map<String, Object> resp = liveStatus(live);
+            // A settled download's stages may have finished; their outcome is only on the row
+            putPostProcess(resp, id, live.getStatus() == DownloadStatus.DOWNLOADING ? null : downloadService.getDownload(id));
+            return ResponseEntity.ok(resp);
+        }
         Download download = downloadService.getDownload(id);
+        List<SegmentInfo> stored = segmentRepo.findByDownloadId(id);
         // Build a status response (could be a DTO)
         Map<String, Object> resp = new HashMap<>();
         resp.put("downloadId", download.getId());
         resp.put("status", download.getStatus());
-        long total = download.getSegments().stream().mapToLong(SegmentInfo::getDownloadedBytes).sum();
+        long total = stored.stream().mapToLong(SegmentInfo::getDownloadedBytes).sum();
         resp.put("downloadedBytes", total);
         List<Map<String, Object>> segments = new ArrayList<>();
-        for (SegmentInfo seg : download.getSegments()) {
+        for (SegmentInfo seg : stored) {
             Map<String, Object> s = new HashMap<>();
             s.put("segmentIndex", seg.getSegmentIndex());
             s.put("status", seg.getStatus());
@@ -140,19 +408,113 @@ public class DownloadController {
             segments.add(s);
         }
         resp.put("segments", segments);
+        putBlocks(resp, files.existingBitmap(download));
+        putPostProcess(resp, id, download);
         return ResponseEntity.ok(resp);
     }
 
-    // 1. List active downloads
+    // Progress of the download's post-processing stages while they run, else their outcome
+    private void putPostProcess(Map<String, Object> resp, Long id, Download download) {
+        Map<String, Object> running = postProcessor.describe(id);
+        if (running != null) {
+            resp.put("postProcess", running);
+        } else if (download != null && download.getPostProcessStatus() != null) {
+            resp.put("postProcess", Map.of("stages", List.of(download.getPostProcess().split(",")),
+                    "status", download.getPostProcessStatus()));
+        }
+    }
+
+    // Completed blocks from the download's block index, when it has one
+    private static void putBlocks(Map<String, Object> resp, BlockBitmap blocks) {
+        if (blocks != null) {
+            Map<String, Object> b = new HashMap<>();
+            b.put("blockSize", blocks.getBlockSize());
+            b.put("completed", blocks.completedBlocks());
+            b.put("total", blocks.getBlockCount());
+            resp.put("blocks", b);
+        }
+    }
+
+    private Map<String, Object> liveStatus(DownloadProgress live) {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("downloadId", live.getDownloadId());
+        resp.put("status", live.getStatus());
+        resp.put("totalBytes", live.getTotalBytes());
+        resp.put("downloadedBytes", live.getDownloadedBytes());
+        resp.put("bytesPerSecond", Math.round(live.getBytesPerSecond()));
+        resp.put("etaSeconds", live.getEtaSeconds());
+        resp.put("retries", live.getRetries());
+        resp.put("lostMillis", live.getLostMillis());
+        List<Map<String, Object>> segments = new ArrayList<>();
+        for (SegmentProgress seg : live.getSegments()) {
+            Map<String, Object> s = new HashMap<>();
+            s.put("segmentIndex", seg.getSegmentIndex());
+            s.put("status", seg.getStatus());
+            s.put("downloadedBytes", seg.getDownloadedBytes());
+            s.put("startByte", seg.getStartByte());
+            s.put("endByte", seg.getEndByte());
+            segments.add(s);
+        }
+        segments.sort(Comparator.comparingInt(s -> (int) s.get("segmentIndex")));
+        resp.put("segments", segments);
+        putBlocks(resp, files.openBitmap(live.getDownloadId()));
+        List<Map<String, Object>> sources = mirrors.describe(live.getDownloadId());
+        if (!sources.isEmpty()) {
+            resp.put("mirrors", sources);
+        }
+        return resp;
+    }
+
+    // 1. List active downloads in queue order: ?page=&size=&sort=property,asc|desc
     @GetMapping
-    public ResponseEntity<List<Download>> listDownloads() {
-        return ResponseEntity.ok(downloadService.listDownloads());
+    public ResponseEntity<List<DownloadSummary>> listDownloads(
+            @SortDefault.SortDefaults({
+                    @SortDefault(sort = "priority", direction = Sort.Direction.DESC),
+                    @SortDefault(sort = "queuePosition")}) Pageable pageable) {
+        return paged(downloadService.listDownloads(pageable));
     }
 
-    // 2. List history
+    // 2. List history, most recent first
     @GetMapping("/history")
-    public ResponseEntity<List<Download>> listHistory() {
-        return ResponseEntity.ok(downloadService.listHistory());
+    public ResponseEntity<List<DownloadSummary>> listHistory(
+            @SortDefault(sort = "updatedAt", direction = Sort.Direction.DESC) Pageable pageable) {
+        return paged(downloadService.listHistory(pageable));
+    }
+
+    // The page as a plain array; the total row count goes in a header
+    private static <T> ResponseEntity<List<T>> paged(Page<T> page) {
+        return ResponseEntity.ok()
+                .header("X-Total-Count", String.valueOf(page.getTotalElements()))
+                .body(page.getContent());
+    }
+
+    // Progress pushed as Server-Sent Events, for all downloads or a single one
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamAll(@RequestParam(required = false) Long intervalMs) {
+        return progressStream.subscribe(null, intervalMs);
+    }
+
+    @GetMapping(path = "/{id}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@PathVariable Long id, @RequestParam(required = false) Long intervalMs) {
+        return progressStream.subscribe(id, intervalMs);
+    }
+
+    // Scheduler load, for sizing the connection limits
+    @GetMapping("/scheduler")
+    public ResponseEntity<?> schedulerStats() {
+        Map<String, Object> resp = new HashMap<>();
+        resp.put("activeSegments", scheduler.getActiveCount());
+        resp.put("queuedSegments", scheduler.getQueueDepth());
+        resp.put("stalls", stallWatchdog.getStalls());
+        resp.put("hedges", stallWatchdog.getHedges());
+        resp.put("reconnects", stallWatchdog.getReconnects());
+        return ResponseEntity.ok(resp);
+    }
+
+    // Retry counters and circuit breaker state per host
+    @GetMapping("/hosts")
+    public ResponseEntity<?> hostStats() {
+        return ResponseEntity.ok(retryPolicy.getHostStats());
     }
 
     // 3. Cancel a download
@@ -161,4 +523,10 @@ public class DownloadController {
         downloadService.cancelDownload(id);
         return ResponseEntity.ok("Download " + id + " cancelled");
     }
+
+    // Bad input, such as an unknown download ID or an invalid URL, stage or checksum algorithm
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<?> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
 }
@@ -0,0 +1,184 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Which fixed-size blocks of a download are completely on disk, one bit per block, in a
+ * memory-mapped sidecar next to the file ({@code <file>.part.idx}).
+ * <p>
+ * Writers set bits as they pass block ends, so the index survives a crash of the application
+ * without a database write; the OS writes the pages back on its own and {@link #force} makes
+ * them durable. A header records the block size and file length; an index that does not match
+ * the download is started afresh.
+ */
+public class BlockBitmap implements Closeable {
+    private static final int MAGIC = 0x49444d58; // "IDMX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;  // keeps the words 8-byte aligned for atomic updates
+    private static final VarHandle WORDS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final int blockSize;
+    private final long totalBytes;
+    private final int blockCount;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+
+    private BlockBitmap(FileChannel channel, int blockSize, long totalBytes) throws IOException {
+        this.blockSize = blockSize;
+        this.totalBytes = totalBytes;
+        this.blockCount = (int) ((totalBytes + blockSize - 1) / blockSize);
+        this.channel = channel;
+        long length = HEADER_BYTES + (long) ((blockCount + 63) / 64) * Long.BYTES;
+        boolean matches = channel.size() == length;
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (!matches || map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+                || map.getInt(8) != blockSize || map.getLong(16) != totalBytes) {
+            clear();
+            map.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, blockSize).putLong(16, totalBytes);
+        }
+    }
+
+    /** Open or create the index of a file of {@code totalBytes}. */
+    public static BlockBitmap open(Path path, int blockSize, long totalBytes) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            return new BlockBitmap(channel, blockSize, totalBytes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Where the index of a download file lives. */
+    public static Path sidecar(String fileName) {
+        return Path.of(fileName + ".part.idx");
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Record that {@code [from, to)} has just been written by a writer whose contiguous range
+     * began at {@code rangeStart}: marks the blocks now covered whole, including the one
+     * {@code from} fell in if the range covers its start.
+     */
+    public void written(long rangeStart, long from, long to) {
+        mark(Math.max(rangeStart, from - from % blockSize), to);
+    }
+
+    /** Mark every block lying entirely inside {@code [from, to)}. */
+    public void mark(long from, long to) {
+        int first = (int) ((from + blockSize - 1) / blockSize);
+        int end = to >= totalBytes ? blockCount : (int) (to / blockSize);
+        for (int block = first; block < end; block++) {
+            int offset = HEADER_BYTES + (block >>> 6) * Long.BYTES;
+            long bit = 1L << (block & 63);
+            if (((long) WORDS.getVolatile(map, offset) & bit) == 0) {
+                WORDS.getAndBitwiseOr(map, offset, bit);
+            }
+        }
+    }
+
+    /**
+     * Mark the blocks covered by written ranges {@code {from, to}} in any order. Ranges that
+     * touch are joined first, so a block split between two segments counts once both reach it.
+     */
+    public void markAll(List<long[]> ranges) {
+        List<long[]> sorted = new ArrayList<>(ranges);
+        sorted.sort((a, b) -> Long.compare(a[0], b[0]));
+        long from = -1;
+        long to = -1;
+        for (long[] range : sorted) {
+            if (range[1] <= range[0]) {
+                continue;
+            }
+            if (range[0] > to) {
+                if (to > from) {
+                    mark(from, to);
+                }
+                from = range[0];
+            }
+            to = Math.max(to, range[1]);
+        }
+        if (to > from) {
+            mark(from, to);
+        }
+    }
+
+    public boolean isComplete(int block) {
+        long word = (long) WORDS.getVolatile(map, HEADER_BYTES + (block >>> 6) * Long.BYTES);
+        return (word & (1L << (block & 63))) != 0;
+    }
+
+    public int completedBlocks() {
+        int count = 0;
+        for (int offset = HEADER_BYTES; offset < map.capacity(); offset += Long.BYTES) {
+            count += Long.bitCount((long) WORDS.getVolatile(map, offset));
+        }
+        return count;
+    }
+
+    /**
+     * End of the run of complete blocks that {@code position} falls in; {@code position} itself
+     * when its block is not complete.
+     */
+    public long completeUpTo(long position) {
+        int block = (int) (position / blockSize);
+        int end = block;
+        while (end < blockCount && isComplete(end)) {
+            end++;
+        }
+        return end == block ? position : Math.min((long) end * blockSize, totalBytes);
+    }
+
+    /** Byte ranges {@code {start, endInclusive}} of the blocks not yet complete, in file order. */
+    public List<long[]> missing() {
+        List<long[]> runs = new ArrayList<>();
+        int block = 0;
+        while (block < blockCount) {
+            if (isComplete(block)) {
+                block++;
+                continue;
+            }
+            int start = block;
+            while (block < blockCount && !isComplete(block)) {
+                block++;
+            }
+            runs.add(new long[] {(long) start * blockSize, Math.min((long) block * blockSize, totalBytes) - 1});
+        }
+        return runs;
+    }
+
+    public void clear() {
+        for (int offset = HEADER_BYTES; offset < map.capacity(); offset += Long.BYTES) {
+            WORDS.setVolatile(map, offset, 0L);
+        }
+    }
+
+    /** Write the index back to the device; call after the data it describes has been forced. */
+    public void force() {
+        map.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close(); // the mapping stays valid until it is collected
+    }
+}
@@ -0,0 +1,76 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C of every fixed-size block of a file, computed by the writers from the bytes they
+ * write. Reading a block back and comparing against it tells whether what is on disk is what
+ * came off the network, so a damaged block can be fetched again on its own. It says nothing
+ * about whether what came off the network was right.
+ * <p>
+ * Only a writer that wrote a block from its first to its last byte records it; blocks cut by
+ * a segment boundary or a reconnect stay unknown.
+ */
+public class BlockChecksums {
+    private static final long UNKNOWN = -1;
+
+    private final int blockSize;
+    private final long totalBytes;
+    private final AtomicLongArray crcs;
+
+    public BlockChecksums(int blockSize, long totalBytes) {
+        this.blockSize = blockSize;
+        this.totalBytes = totalBytes;
+        this.crcs = new AtomicLongArray((int) ((totalBytes + blockSize - 1) / blockSize));
+        for (int i = 0; i < crcs.length(); i++) {
+            crcs.set(i, UNKNOWN);
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /** Recorded CRC32C of the block, or -1 when no writer covered it whole. */
+    public long get(int block) {
+        return crcs.get(block);
+    }
+
+    /** Checksum state of one writer; not thread-safe. */
+    public Tracker tracker() {
+        return new Tracker();
+    }
+
+    public class Tracker {
+        private final CRC32C crc = new CRC32C();
+        private long next = -1;
+        private boolean fromBlockStart;
+
+        /** Account for {@code chunk} (position to limit, left untouched) about to be written at {@code position}. */
+        public void update(ByteBuffer chunk, long position) {
+            ByteBuffer view = chunk.duplicate();
+            while (view.hasRemaining()) {
+                if (position % blockSize == 0) {
+                    crc.reset();
+                    fromBlockStart = true;
+                } else if (position != next) {
+                    fromBlockStart = false; // joined a block in the middle
+                }
+                int block = (int) (position / blockSize);
+                long blockEnd = Math.min((long) (block + 1) * blockSize, totalBytes);
+                int n = (int) Math.min(view.remaining(), blockEnd - position);
+                int limit = view.limit();
+                view.limit(view.position() + n);
+                crc.update(view);
+                view.limit(limit);
+                position += n;
+                next = position;
+                if (position == blockEnd && fromBlockStart) {
+                    crcs.set(block, crc.getValue());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps direct transfer buffers around between segments; allocating direct memory is slow
+ * and it is only reclaimed on GC.
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<TransferBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public TransferBuffer acquire() {
+        TransferBuffer buffer = free.poll();
+        if (buffer == null) {
+            return new TransferBuffer(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    public void release(TransferBuffer buffer) {
+        if (buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
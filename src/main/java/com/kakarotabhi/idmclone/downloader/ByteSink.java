@@ -0,0 +1,53 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Somewhere bytes are pushed as they become available, such as the next step of a decoder chain. */
+public interface ByteSink {
+
+    /** Take the remaining bytes of the buffer; it is only valid during the call. */
+    void write(ByteBuffer bytes) throws IOException;
+
+    /** No more bytes follow; fails when the data ended too early. */
+    void finish() throws IOException;
+
+    /** No more bytes follow because the source gave up; releases what the sink holds. */
+    default void abort() {
+    }
+
+    /** A sink writing to a file, replacing what it held. */
+    static ByteSink toFile(Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new ByteSink() {
+            @Override
+            public void write(ByteBuffer bytes) throws IOException {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+
+            @Override
+            public void finish() throws IOException {
+                channel.close();
+            }
+
+            @Override
+            public void abort() {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // nothing more to write anyway
+                }
+            }
+        };
+    }
+}
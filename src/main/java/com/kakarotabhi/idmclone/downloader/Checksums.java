@@ -0,0 +1,140 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.net.http.HttpHeaders;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Supported whole-file checksums, and where to find an expected value in response headers. */
+public final class Checksums {
+
+    public static final String SHA_256 = "SHA-256";
+    public static final String MD5 = "MD5";
+    public static final String CRC32C = "CRC32C";
+
+    private static final Pattern DIGEST_ENTRY = Pattern.compile("([A-Za-z0-9-]+)=:?([A-Za-z0-9+/=]+):?");
+
+    /** An expected checksum, value in lowercase hex. */
+    public record Expected(String algorithm, String hex) { }
+
+    /** Incremental hash over the bytes of a file, fed in order. */
+    public interface Hasher {
+        void update(ByteBuffer bytes);
+
+        String hex();
+    }
+
+    private Checksums() {
+    }
+
+    /** Canonical name of a checksum algorithm, e.g. "sha256" becomes "SHA-256". */
+    public static String algorithm(String name) {
+        return switch (name.toLowerCase(Locale.ROOT).replace("-", "").replace("_", "")) {
+            case "sha256" -> SHA_256;
+            case "md5" -> MD5;
+            case "crc32c" -> CRC32C;
+            default -> throw new IllegalArgumentException("Unsupported checksum algorithm: " + name);
+        };
+    }
+
+    /**
+     * Expected checksum announced by the server: {@code Repr-Digest} or {@code Digest}
+     * (SHA-256, then MD5), {@code x-goog-hash} or {@code Content-MD5}. A value that does not
+     * decode to a digest of the right length is ignored; the server's mistake is no reason to
+     * fail the download. ETags are not used, even when they look like an MD5: many servers
+     * derive them from the inode or modification time rather than the content.
+     */
+    public static Optional<Expected> fromHeaders(HttpHeaders headers) {
+        for (String name : new String[]{"Repr-Digest", "Digest", "x-goog-hash"}) {
+            Optional<Expected> found = fromDigestHeader(String.join(",", headers.allValues(name)));
+            if (found.isPresent()) {
+                return found;
+            }
+        }
+        return headers.firstValue("Content-MD5")
+                .map(value -> base64ToHex(MD5, value.trim()))
+                .map(hex -> new Expected(MD5, hex));
+    }
+
+    // "sha-256=:base64:, md5=:base64:" or "crc32c=base64,md5=base64"
+    private static Optional<Expected> fromDigestHeader(String value) {
+        Expected best = null;
+        for (String entry : value.split(",")) {
+            Matcher m = DIGEST_ENTRY.matcher(entry.trim());
+            if (!m.matches()) {
+                continue;
+            }
+            String algorithm;
+            try {
+                algorithm = algorithm(m.group(1));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            String hex = base64ToHex(algorithm, m.group(2));
+            if (hex != null && (best == null || rank(algorithm) < rank(best.algorithm()))) {
+                best = new Expected(algorithm, hex);
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    private static int rank(String algorithm) {
+        return switch (algorithm) {
+            case SHA_256 -> 0;
+            case MD5 -> 1;
+            default -> 2;
+        };
+    }
+
+    // Hex of a base64 digest, or null when it is not valid base64 of the algorithm's length
+    private static String base64ToHex(String algorithm, String base64) {
+        byte[] digest;
+        try {
+            digest = Base64.getDecoder().decode(base64);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int length = switch (algorithm) {
+            case SHA_256 -> 32;
+            case MD5 -> 16;
+            default -> 4;
+        };
+        return digest.length == length ? HexFormat.of().formatHex(digest) : null;
+    }
+
+    public static Hasher newHasher(String algorithm) {
+        if (CRC32C.equals(algorithm)) {
+            java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+            return new Hasher() {
+                public void update(ByteBuffer bytes) {
+                    crc.update(bytes);
+                }
+
+                public String hex() {
+                    return String.format("%08x", crc.getValue());
+                }
+            };
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm: " + algorithm, e);
+        }
+        return new Hasher() {
+            public void update(ByteBuffer bytes) {
+                digest.update(bytes);
+            }
+
+            public String hex() {
+                return HexFormat.of().formatHex(digest.digest());
+            }
+        };
+    }
+}
@@ -0,0 +1,93 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One {@link FileChannel} shared by all segments of a download, written with positional writes.
+ * <p>
+ * Interrupting a thread inside a channel operation closes the channel for everyone. The
+ * interrupted writer gets its {@link ClosedByInterruptException}; the other writers
+ * reopen the channel and carry on. Only the file that was there is reopened: once it has been
+ * closed for good or deleted, e.g. by a cancel, writers get {@link ClosedChannelException} or
+ * {@link NoSuchFileException} and stop instead of creating it again.
+ */
+public class DownloadFile implements Closeable {
+    private final Path path;
+    private volatile FileChannel channel;
+    private boolean closed;
+
+    public DownloadFile(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /** Write the whole buffer at the given file offset. */
+    public void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            FileChannel ch = channel;
+            try {
+                position += ch.write(buffer, position);
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                reopen(ch);
+            }
+        }
+    }
+
+    /** Read into the buffer from the given file offset; returns -1 past the end of the file. */
+    public int read(ByteBuffer buffer, long position) throws IOException {
+        while (true) {
+            FileChannel ch = channel;
+            try {
+                return ch.read(buffer, position);
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                reopen(ch);
+            }
+        }
+    }
+
+    /** Flush written bytes to the device; any open channel of the file flushes all of them. */
+    public void force() throws IOException {
+        while (true) {
+            FileChannel ch = channel;
+            try {
+                ch.force(false);
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                reopen(ch);
+            }
+        }
+    }
+
+    private synchronized void reopen(FileChannel stale) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (channel == stale) {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+}
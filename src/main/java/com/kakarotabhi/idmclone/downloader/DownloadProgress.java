@@ -0,0 +1,141 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters of one download. Segment workers only touch the striped byte counter, so
+ * hundreds of them can report progress without contending; speed is computed off the copy
+ * path by {@link #sample} over a sliding window.
+ */
+public class DownloadProgress {
+    private final Long downloadId;
+    private volatile long totalBytes;
+    private final LongAdder downloadedBytes = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder lostNanos = new LongAdder();
+    private final ConcurrentMap<Long, SegmentProgress> segments = new ConcurrentHashMap<>();
+    private volatile DownloadStatus status;
+    private volatile long stoppedAtNanos;
+
+    // Ring of (time, bytes) samples; the oldest and newest give the windowed speed
+    private final long[] sampleNanos;
+    private final long[] sampleBytes;
+    private int sampleHead;
+    private int sampleCount;
+    private volatile double bytesPerSecond;
+
+    public DownloadProgress(Long downloadId, long totalBytes, DownloadStatus status, int windowSamples) {
+        this.downloadId = downloadId;
+        this.totalBytes = totalBytes;
+        this.status = status;
+        this.sampleNanos = new long[Math.max(2, windowSamples)];
+        this.sampleBytes = new long[Math.max(2, windowSamples)];
+    }
+
+    public Long getDownloadId() {
+        return downloadId;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /** Set once a stream of unknown length has ended. */
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.sum();
+    }
+
+    public void addDownloadedBytes(long delta) {
+        if (delta != 0) {
+            downloadedBytes.add(delta);
+        }
+    }
+
+    /** Segment attempts repeated after an error. */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /** Time segments spent stalled, backing off or waiting on a circuit breaker because of errors. */
+    public long getLostMillis() {
+        return lostNanos.sum() / 1_000_000;
+    }
+
+    public void recordRetry() {
+        retries.increment();
+    }
+
+    public void addLostNanos(long nanos) {
+        lostNanos.add(nanos);
+    }
+
+    public DownloadStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(DownloadStatus status) {
+        this.status = status;
+        this.stoppedAtNanos = status == DownloadStatus.DOWNLOADING ? 0 : System.nanoTime();
+        if (status != DownloadStatus.DOWNLOADING) {
+            bytesPerSecond = 0;
+        }
+    }
+
+    /** When the download left DOWNLOADING, or 0 while it is running. */
+    public long getStoppedAtNanos() {
+        return stoppedAtNanos;
+    }
+
+    public Collection<SegmentProgress> getSegments() {
+        return segments.values();
+    }
+
+    public SegmentProgress getSegment(Long segmentId) {
+        return segments.get(segmentId);
+    }
+
+    public SegmentProgress addSegmentIfAbsent(SegmentProgress progress) {
+        SegmentProgress existing = segments.putIfAbsent(progress.getSegmentId(), progress);
+        return existing != null ? existing : progress;
+    }
+
+    /** Average speed over the sampling window, in bytes per second. */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /** Seconds left at the current speed, or -1 when there is no speed to go by. */
+    public long getEtaSeconds() {
+        double speed = bytesPerSecond;
+        if (speed <= 0 || totalBytes <= 0) {
+            return -1;
+        }
+        return (long) Math.ceil(Math.max(0, totalBytes - getDownloadedBytes()) / speed);
+    }
+
+    /** Record the current byte count and recompute the windowed speed. */
+    public synchronized void sample(long nowNanos) {
+        sampleNanos[sampleHead] = nowNanos;
+        sampleBytes[sampleHead] = getDownloadedBytes();
+        int newest = sampleHead;
+        sampleHead = (sampleHead + 1) % sampleNanos.length;
+        sampleCount = Math.min(sampleCount + 1, sampleNanos.length);
+        if (sampleCount < 2 || status != DownloadStatus.DOWNLOADING) {
+            return;
+        }
+        int oldest = sampleCount < sampleNanos.length ? 0 : sampleHead;
+        long elapsed = sampleNanos[newest] - sampleNanos[oldest];
+        if (elapsed > 0) {
+            bytesPerSecond = Math.max(0, sampleBytes[newest] - sampleBytes[oldest]) * 1e9 / elapsed;
+        }
+    }
+}
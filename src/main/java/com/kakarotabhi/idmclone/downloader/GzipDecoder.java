@@ -0,0 +1,163 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Gunzip for data that arrives in pieces: compressed bytes are pushed in as they come and the
+ * decompressed bytes are pushed on to the next sink, with no thread blocked waiting for input.
+ * Concatenated members are decoded one after the other, each checked against its CRC32 and
+ * length; anything after the last member that is not another member is ignored, as gzip does.
+ */
+public class GzipDecoder implements ByteSink {
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private enum State { HEADER, BODY, TRAILER, DONE }
+
+    private final ByteSink out;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunk = new byte[64 * 1024];
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(); // header or trailer so far
+    private State state = State.HEADER;
+    private long size;   // decompressed bytes of the current member
+    private int members; // completely decoded
+
+    public GzipDecoder(ByteSink out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            switch (state) {
+                case HEADER -> {
+                    pending.write(in.get());
+                    byte[] header = pending.toByteArray();
+                    if (header.length == 2 && ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b)) {
+                        if (members == 0) {
+                            throw new IOException("Not in gzip format");
+                        }
+                        state = State.DONE; // trailing padding after the last member
+                    } else if (headerLength(header) > 0) {
+                        pending.reset();
+                        inflater.reset();
+                        crc.reset();
+                        size = 0;
+                        state = State.BODY;
+                    }
+                }
+                case BODY -> inflate(in);
+                case TRAILER -> {
+                    pending.write(in.get());
+                    if (pending.size() == 8) {
+                        checkTrailer(pending.toByteArray());
+                        pending.reset();
+                        members++;
+                        state = State.HEADER;
+                    }
+                }
+                case DONE -> in.position(in.limit());
+            }
+        }
+    }
+
+    // Decompress what the input holds, leaving anything after the end of the member in it
+    private void inflate(ByteBuffer in) throws IOException {
+        inflater.setInput(in); // its position advances by what the inflater consumes
+        try {
+            while (true) {
+                int n = inflater.inflate(chunk);
+                if (n > 0) {
+                    crc.update(chunk, 0, n);
+                    size += n;
+                    out.write(ByteBuffer.wrap(chunk, 0, n));
+                }
+                if (inflater.finished()) {
+                    state = State.TRAILER;
+                    return;
+                }
+                if (n == 0) {
+                    if (inflater.needsInput()) {
+                        return;
+                    }
+                    throw new IOException("Corrupt gzip data: the stream needs a preset dictionary");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt gzip data: " + e.getMessage(), e);
+        }
+    }
+
+    // Length of a complete member header, or -1 while more of it is needed
+    private static int headerLength(byte[] h) throws IOException {
+        if (h.length < 10) {
+            return -1;
+        }
+        if (h[2] != 8) {
+            throw new IOException("Unsupported gzip compression method " + h[2]);
+        }
+        int flags = h[3] & 0xff;
+        int pos = 10;
+        if ((flags & FEXTRA) != 0) {
+            if (h.length < pos + 2) {
+                return -1;
+            }
+            pos += 2 + ((h[pos] & 0xff) | (h[pos + 1] & 0xff) << 8);
+        }
+        for (int flag : new int[] {FNAME, FCOMMENT}) {
+            if ((flags & flag) != 0) {
+                while (pos < h.length && h[pos] != 0) {
+                    pos++;
+                }
+                if (pos >= h.length) {
+                    return -1;
+                }
+                pos++; // the terminating zero
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            pos += 2;
+        }
+        return h.length >= pos ? pos : -1;
+    }
+
+    private void checkTrailer(byte[] t) throws IOException {
+        long expectedCrc = littleEndian(t, 0);
+        long expectedSize = littleEndian(t, 4);
+        if (expectedCrc != crc.getValue()) {
+            throw new IOException("Corrupt gzip data: CRC mismatch");
+        }
+        if (expectedSize != (size & 0xffffffffL)) {
+            throw new IOException("Corrupt gzip data: length mismatch");
+        }
+    }
+
+    private static long littleEndian(byte[] b, int off) {
+        return (b[off] & 0xffL) | (b[off + 1] & 0xffL) << 8 | (b[off + 2] & 0xffL) << 16 | (b[off + 3] & 0xffL) << 24;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        inflater.end();
+        if (state == State.BODY || state == State.TRAILER || members == 0
+                || (state == State.HEADER && pending.size() > 0)) {
+            out.abort();
+            throw new IOException("Gzip data ends early");
+        }
+        out.finish();
+    }
+
+    @Override
+    public void abort() {
+        inflater.end();
+        out.abort();
+    }
+}
@@ -0,0 +1,19 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.io.IOException;
+
+/** The server answered a range request with a status the transfer cannot use. */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public HttpStatusException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
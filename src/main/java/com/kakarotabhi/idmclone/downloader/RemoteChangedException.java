@@ -0,0 +1,13 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.io.IOException;
+
+/** The remote file no longer matches the ETag or Last-Modified the download started with. */
+public class RemoteChangedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+
+    public RemoteChangedException(String message) {
+        super(message);
+    }
+}
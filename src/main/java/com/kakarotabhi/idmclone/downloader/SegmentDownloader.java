@@ -2,28 +2,33 @@ package com.kakarotabhi.idmclone.downloader;
 
 import com.kakarotabhi.idmclone.task.SegmentInfo;
 
-import java.io.File;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class SegmentDownloader implements Runnable {
-    private final URL url;
+    private final HttpClient client;
+    private final URI uri;
     private final SegmentInfo segment;
-    private final File targetFile;
+    private final DownloadFile targetFile;
+    private final BufferPool bufferPool;
     private final AtomicLong bytesDownloaded;
     private final AtomicBoolean errorFlag;
     private final CountDownLatch doneSignal;
 
-    public SegmentDownloader(URL url, File targetFile, SegmentInfo segment, 
-                             AtomicLong bytesDownloaded, AtomicBoolean errorFlag, 
-                             CountDownLatch doneSignal) {
-        this.url = url;
+    public SegmentDownloader(HttpClient client, URI uri, DownloadFile targetFile, SegmentInfo segment,
+                             BufferPool bufferPool, AtomicLong bytesDownloaded,
+                             AtomicBoolean errorFlag, CountDownLatch doneSignal) {
+        this.client = client;
+        this.uri = uri;
         this.targetFile = targetFile;
+        this.bufferPool = bufferPool;
         this.segment = segment;
         this.bytesDownloaded = bytesDownloaded;
         this.errorFlag = errorFlag;
@@ -33,25 +38,30 @@ public class SegmentDownloader implements Runnable {
     @Override
     public void run() {
         try {
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestProperty("Range", 
-                                    "bytes=" + segment.getStart() + "-" + segment.getEnd());
-            conn.setInstanceFollowRedirects(true);  // follow HTTP redirects
-            conn.connect();
+            // The shared client follows redirects and reuses pooled connections
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .header("Range", "bytes=" + segment.getStart() + "-" + segment.getEnd())
+                    .GET()
+                    .build();
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
             // Expect 206 Partial Content for successful range request
-            if (conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL) {
-                try (InputStream in = conn.getInputStream();
-                     RandomAccessFile raf = new RandomAccessFile(targetFile, "rw")) {
-                    raf.seek(segment.getStart());
-                    byte[] buffer = new byte[8192];
+            if (response.statusCode() == 206) {
+                TransferBuffer buffer = bufferPool.acquire();
+                try (InputStream in = response.body()) {
+                    long position = segment.getStart();
                     int len;
-                    while ((len = in.read(buffer)) != -1) {
-                        raf.write(buffer, 0, len);
+                    while ((len = buffer.fill(in)) != -1) {
+                        ByteBuffer chunk = buffer.buffer();
+                        targetFile.write(chunk, position);
+                        position += len;
                         bytesDownloaded.addAndGet(len);
                     }
+                } finally {
+                    bufferPool.release(buffer);
                 }
             } else {
                 // If server doesn't honor range, mark error
+                response.body().close();
                 errorFlag.set(true);
             }
         } catch (Exception e) {
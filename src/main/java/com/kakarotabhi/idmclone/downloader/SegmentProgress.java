@@ -0,0 +1,257 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import com.kakarotabhi.idmclone.enums.SegmentStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Live byte range of a segment that is being transferred.
+ * <p>
+ * Writers ask for permission with {@link #reserve} before writing and report with
+ * {@link #advance} afterwards, so the end of the range can be moved down by
+ * {@link #split} while the transfer is running without two connections claiming
+ * the same bytes.
+ * <p>
+ * Readers such as the status endpoint never take the lock: the range and offset are
+ * published through volatile fields.
+ * <p>
+ * A range can have more than one {@link Writer} when a stalled transfer is hedged with a
+ * second connection. Both write the same bytes from the same starting point, the frontier
+ * follows whichever is ahead, and a writer that falls too far behind is interrupted.
+ */
+public class SegmentProgress {
+    /** End of a range read from a stream whose length is not known yet. */
+    public static final long OPEN_END = Long.MAX_VALUE - 1;
+
+    private final Long segmentId;
+    private final int segmentIndex;
+    private final long startByte;
+    private volatile long endByte;  // inclusive, shrinks when the range is split
+    private volatile long frontier; // first byte not yet written
+    private long reservedUpTo;      // first byte not yet handed out to a writer
+    private volatile SegmentStatus status = SegmentStatus.PENDING;
+    private final List<Writer> writers = new ArrayList<>(2);
+
+    /** One connection transferring this range. */
+    public static class Writer {
+        private final Thread thread = Thread.currentThread();
+        private final boolean hedge;
+        private final long attachedNanos = System.nanoTime();
+        private volatile long cursor;
+        private volatile long lastProgressNanos = attachedNanos;
+        private volatile boolean superseded;
+        private volatile boolean stalled;
+        // Last sample taken by the watchdog
+        private long sampledCursor;
+        private long sampledNanos;
+
+        private Writer(long cursor, boolean hedge) {
+            this.cursor = cursor;
+            this.sampledCursor = cursor;
+            this.sampledNanos = attachedNanos;
+            this.hedge = hedge;
+        }
+
+        public boolean isHedge() {
+            return hedge;
+        }
+
+        public long getCursor() {
+            return cursor;
+        }
+
+        public long getAttachedNanos() {
+            return attachedNanos;
+        }
+
+        public long getLastProgressNanos() {
+            return lastProgressNanos;
+        }
+
+        /** Another writer got ahead; this one was interrupted and should leave quietly. */
+        public boolean isSuperseded() {
+            return superseded;
+        }
+
+        /** The watchdog interrupted this writer so it reconnects. */
+        public boolean isStalled() {
+            return stalled;
+        }
+
+        /** Bytes per second since the previous call; for the watchdog only. */
+        public double sampleRate(long nowNanos) {
+            long elapsed = nowNanos - sampledNanos;
+            double rate = elapsed > 0 ? (cursor - sampledCursor) * 1e9 / elapsed : 0;
+            sampledCursor = cursor;
+            sampledNanos = nowNanos;
+            return rate;
+        }
+    }
+
+    public SegmentProgress(Long segmentId, int segmentIndex, long startByte, long endByte, long frontier) {
+        this.segmentId = segmentId;
+        this.segmentIndex = segmentIndex;
+        this.startByte = startByte;
+        this.endByte = endByte;
+        this.frontier = frontier;
+        this.reservedUpTo = frontier;
+    }
+
+    public Long getSegmentId() {
+        return segmentId;
+    }
+
+    public int getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    public long getStartByte() {
+        return startByte;
+    }
+
+    public long getEndByte() {
+        return endByte;
+    }
+
+    public long getFrontier() {
+        return frontier;
+    }
+
+    public long getDownloadedBytes() {
+        return frontier - startByte;
+    }
+
+    public SegmentStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(SegmentStatus status) {
+        this.status = status;
+    }
+
+    /** Bytes not yet handed out to a writer. */
+    public synchronized long getRemainingBytes() {
+        return Math.max(0, endByte - reservedUpTo + 1);
+    }
+
+    public boolean isComplete() {
+        return frontier > endByte;
+    }
+
+    /**
+     * How many of the {@code length} bytes read at {@code cursor} may be written.
+     * Zero means the range has been fully handed out and the writer should stop.
+     */
+    public synchronized int reserve(long cursor, int length) {
+        long allowed = Math.max(0, Math.min(length, endByte - cursor + 1));
+        reservedUpTo = Math.max(reservedUpTo, cursor + allowed);
+        return (int) allowed;
+    }
+
+    /** Record that everything before {@code cursor} is on disk; returns the newly covered byte count. */
+    public synchronized long advance(long cursor) {
+        return advance(null, cursor, 0);
+    }
+
+    /**
+     * {@link #advance(long)} for an attached writer. When the range has several writers, the
+     * ones more than {@code maxLag} bytes behind the frontier are interrupted.
+     */
+    public synchronized long advance(Writer writer, long cursor, long maxLag) {
+        if (writer != null) {
+            writer.cursor = cursor;
+            writer.lastProgressNanos = System.nanoTime();
+            if (writers.size() > 1) {
+                for (Writer other : writers) {
+                    if (other != writer && !other.superseded && Math.max(cursor, frontier) - other.cursor > maxLag) {
+                        other.superseded = true;
+                        other.thread.interrupt();
+                    }
+                }
+            }
+        }
+        if (cursor <= frontier) {
+            return 0;
+        }
+        long delta = cursor - frontier;
+        frontier = cursor;
+        return delta;
+    }
+
+    /** Register the calling thread as a writer starting at {@code cursor}. */
+    public synchronized Writer attach(long cursor, boolean hedge) {
+        Writer writer = new Writer(cursor, hedge);
+        writers.add(writer);
+        return writer;
+    }
+
+    /**
+     * Unregister a writer. No interrupt is sent to it afterwards, so one that was meant for
+     * it (stall or superseded) is cleared here rather than hitting its next database call.
+     */
+    public void detach(Writer writer) {
+        synchronized (this) {
+            writers.remove(writer);
+        }
+        if (writer.superseded || writer.stalled) {
+            Thread.interrupted();
+        }
+    }
+
+    /** Close an open-ended range at {@code endByte} once the stream it is read from has ended. */
+    public synchronized void endAt(long endByte) {
+        this.endByte = endByte;
+    }
+
+    public synchronized List<Writer> getWriters() {
+        return new ArrayList<>(writers);
+    }
+
+    /** Interrupt a stalled writer so it reconnects; false when it already left. */
+    public synchronized boolean interruptStalled(Writer writer) {
+        if (!writers.contains(writer) || writer.superseded) {
+            return false;
+        }
+        writer.stalled = true;
+        writer.thread.interrupt();
+        return true;
+    }
+
+    /** Interrupt every other writer; {@code winner} finished the range. */
+    public synchronized void supersedeOthers(Writer winner) {
+        for (Writer other : writers) {
+            if (other != winner && !other.superseded) {
+                other.superseded = true;
+                other.thread.interrupt();
+            }
+        }
+    }
+
+    /** Whether writers other than {@code writer} are still transferring this range. */
+    public synchronized boolean hasOtherWriters(Writer writer) {
+        return writers.stream().anyMatch(w -> w != writer && !w.superseded);
+    }
+
+    /**
+     * Give away the back half of the bytes not yet handed out, cut at a multiple of
+     * {@code align} when one falls in the back half.
+     *
+     * @return the {@code [start, end]} range that was cut off, or {@code null} when
+     * less than {@code 2 * minBytes} remain
+     */
+    public synchronized long[] split(long minBytes, long align) {
+        long remaining = endByte - reservedUpTo + 1;
+        if (remaining < 2 * minBytes) {
+            return null;
+        }
+        long mid = reservedUpTo + remaining / 2;
+        long aligned = (mid + align - 1) / align * align;
+        if (aligned <= endByte) {
+            mid = aligned;
+        }
+        long[] stolen = {mid, endByte};
+        endByte = mid - 1;
+        return stolen;
+    }
+}
@@ -0,0 +1,244 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tar reader for data that arrives in pieces: writes the entries of the archive under a
+ * directory as their bytes are pushed in. Reads ustar headers, GNU long names and pax paths
+ * and sizes.
+ * <p>
+ * Only regular files and directories are extracted. Links, devices and global pax headers are
+ * skipped, and an entry that would land outside the directory fails the extraction.
+ */
+public class TarExtractor implements ByteSink {
+    private static final int BLOCK = 512;
+    private static final int MAX_META_BYTES = 1 << 20; // long names and pax records
+
+    private final Path dir;
+    private final byte[] header = new byte[BLOCK];
+    private int headerFill;
+    private long remaining;  // data bytes of the current entry still to come
+    private long padding;    // bytes after them up to the next header
+    private FileChannel output;           // the regular file being written
+    private ByteArrayOutputStream meta;   // body of a long name or pax header being read
+    private byte metaType;
+    private String nextName;  // from a long name or pax header, for the entry that follows
+    private long nextSize = -1;
+    private boolean ended;
+
+    public TarExtractor(Path dir) throws IOException {
+        this.dir = dir.toAbsolutePath().normalize();
+        Files.createDirectories(this.dir);
+    }
+
+    @Override
+    public void write(ByteBuffer in) throws IOException {
+        while (in.hasRemaining() && !ended) {
+            if (remaining > 0) {
+                int n = (int) Math.min(remaining, in.remaining());
+                ByteBuffer part = in.slice(in.position(), n);
+                if (output != null) {
+                    while (part.hasRemaining()) {
+                        output.write(part);
+                    }
+                } else if (meta != null) {
+                    byte[] bytes = new byte[n];
+                    part.get(bytes);
+                    meta.write(bytes);
+                }
+                in.position(in.position() + n);
+                remaining -= n;
+                if (remaining == 0) {
+                    endOfData();
+                }
+            } else if (padding > 0) {
+                int n = (int) Math.min(padding, in.remaining());
+                in.position(in.position() + n);
+                padding -= n;
+            } else {
+                int n = Math.min(BLOCK - headerFill, in.remaining());
+                in.get(header, headerFill, n);
+                headerFill += n;
+                if (headerFill == BLOCK) {
+                    headerFill = 0;
+                    startEntry();
+                }
+            }
+        }
+    }
+
+    private void startEntry() throws IOException {
+        if (isZero(header)) {
+            ended = true; // end-of-archive marker; whatever follows is padding
+            return;
+        }
+        if (!checksumMatches()) {
+            throw new IOException("Not a tar archive, or a damaged header");
+        }
+        String name = nextName != null ? nextName : headerName();
+        long size = nextSize >= 0 ? nextSize : number(124, 12);
+        nextName = null;
+        nextSize = -1;
+        byte type = header[156];
+        remaining = size;
+        padding = (BLOCK - size % BLOCK) % BLOCK;
+        switch (type) {
+            case 'L', 'x' -> {
+                if (size > MAX_META_BYTES) {
+                    throw new IOException("Tar header of " + size + " bytes");
+                }
+                meta = new ByteArrayOutputStream((int) size);
+                metaType = type;
+            }
+            case '0', '\0', '7' -> {
+                Path target = resolve(name);
+                if (target.equals(dir)) {
+                    throw new IOException("Tar entry without a name");
+                }
+                Files.createDirectories(target.getParent());
+                output = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            case '5' -> Files.createDirectories(resolve(name));
+            default -> { } // links, devices, fifos and global headers carry nothing to extract
+        }
+        if (remaining == 0) {
+            endOfData();
+        }
+    }
+
+    private void endOfData() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+        if (meta != null) {
+            byte[] body = meta.toByteArray();
+            meta = null;
+            if (metaType == 'L') {
+                nextName = cString(body, 0, body.length);
+            } else {
+                readPax(body);
+            }
+        }
+    }
+
+    // Records are "<length> <key>=<value>\n", the length counting the whole record in bytes
+    private void readPax(byte[] body) throws IOException {
+        int pos = 0;
+        while (pos < body.length) {
+            int space = pos;
+            while (space < body.length && body[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(body, pos, space - pos, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw new IOException("Damaged pax header");
+            }
+            if (length <= space - pos || pos + length > body.length) {
+                throw new IOException("Damaged pax header");
+            }
+            String record = new String(body, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            int eq = record.indexOf('=');
+            if (eq > 0) {
+                String key = record.substring(0, eq);
+                String value = record.substring(eq + 1);
+                if (key.equals("path")) {
+                    nextName = value;
+                } else if (key.equals("size")) {
+                    nextSize = Long.parseLong(value);
+                }
+            }
+            pos += length;
+        }
+    }
+
+    private String headerName() {
+        String name = cString(header, 0, 100);
+        boolean ustar = new String(header, 257, 5, StandardCharsets.US_ASCII).equals("ustar");
+        String prefix = ustar ? cString(header, 345, 155) : "";
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    // Where an entry goes; names are taken as relative even when they start with a slash
+    private Path resolve(String name) throws IOException {
+        String relative = name.replaceFirst("^/+", "");
+        Path target = dir.resolve(relative).normalize();
+        if (!target.startsWith(dir)) {
+            throw new IOException("Tar entry outside the extraction directory: " + name);
+        }
+        return target;
+    }
+
+    // Octal, or base-256 with the high bit of the first byte set for values that do not fit
+    private long number(int offset, int length) throws IOException {
+        if ((header[offset] & 0x80) != 0) {
+            long value = header[offset] & 0x7f;
+            for (int i = 1; i < length; i++) {
+                value = value << 8 | (header[offset + i] & 0xff);
+            }
+            return value;
+        }
+        String digits = cString(header, offset, length).trim();
+        try {
+            return digits.isEmpty() ? 0 : Long.parseLong(digits, 8);
+        } catch (NumberFormatException e) {
+            throw new IOException("Damaged tar header field: " + digits);
+        }
+    }
+
+    // The checksum field counts as spaces in the sum of the header's bytes
+    private boolean checksumMatches() throws IOException {
+        long sum = 0;
+        for (int i = 0; i < BLOCK; i++) {
+            sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+        }
+        return sum == number(148, 8);
+    }
+
+    private static String cString(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isZero(byte[] bytes) {
+        for (byte b : bytes) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (remaining > 0 || headerFill > 0) {
+            abort();
+            throw new IOException("Tar archive ends inside an entry");
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (output != null) {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // the partial file is left as it is
+            }
+            output = null;
+        }
+    }
+}
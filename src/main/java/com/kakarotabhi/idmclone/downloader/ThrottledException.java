@@ -0,0 +1,11 @@
+package com.kakarotabhi.idmclone.downloader;
+
+/** The server answered a range request with 429 Too Many Requests or 503 Service Unavailable. */
+public class ThrottledException extends HttpStatusException {
+    private static final long serialVersionUID = 1L;
+
+
+    public ThrottledException(int statusCode) {
+        super(statusCode, "Server throttled the request with HTTP " + statusCode);
+    }
+}
@@ -0,0 +1,52 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free rate limiter in the GCRA form of a token bucket: the whole state is one
+ * "theoretical arrival time", so taking tokens is a single CAS and many writers can share
+ * a bucket without queueing on a lock. Callers take what they need and sleep for the
+ * returned time instead of waiting inside the bucket.
+ */
+public class TokenBucket {
+    private static final long MIN_BURST_BYTES = 64 * 1024;
+
+    // Starts below any clock reading: System.nanoTime() may be negative, and a new bucket owes nothing
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+    private volatile long bytesPerSecond;
+
+    public TokenBucket(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /** Bytes per second; zero or less means unlimited. */
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    public void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Take {@code bytes} tokens, going into debt if needed.
+     *
+     * @return nanoseconds the caller should wait before using the bytes
+     */
+    public long reserve(long bytes, long nowNanos) {
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            return 0;
+        }
+        long cost = (long) (bytes * 1e9 / rate);
+        // Allow a burst of a tenth of a second (at least one buffer) before callers wait
+        long tolerance = (long) (Math.max(rate / 10, MIN_BURST_BYTES) * 1e9 / rate);
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long next = Math.max(tat, nowNanos) + cost;
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                return Math.max(0, next - tolerance - nowNanos);
+            }
+        }
+    }
+}
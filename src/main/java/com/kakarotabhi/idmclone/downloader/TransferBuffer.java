@@ -0,0 +1,52 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A direct buffer plus the staging array an {@link InputStream} needs to fill it.
+ * <p>
+ * {@link #fill} blocks for the first read only and then keeps reading whatever the
+ * stream already has buffered, so one positional write covers several socket reads.
+ */
+public class TransferBuffer {
+    private final byte[] staging;
+    private final ByteBuffer direct;
+
+    public TransferBuffer(int size) {
+        this.staging = new byte[size];
+        this.direct = ByteBuffer.allocateDirect(size);
+    }
+
+    public int capacity() {
+        return direct.capacity();
+    }
+
+    /**
+     * Read from the stream into the direct buffer and flip it for writing.
+     *
+     * @return bytes read, or -1 at end of stream
+     */
+    public int fill(InputStream in) throws IOException {
+        direct.clear();
+        int n = in.read(staging, 0, staging.length);
+        if (n == -1) {
+            return -1;
+        }
+        direct.put(staging, 0, n);
+        while (direct.hasRemaining() && in.available() > 0) {
+            n = in.read(staging, 0, Math.min(direct.remaining(), staging.length));
+            if (n <= 0) {
+                break;
+            }
+            direct.put(staging, 0, n);
+        }
+        direct.flip();
+        return direct.limit();
+    }
+
+    public ByteBuffer buffer() {
+        return direct;
+    }
+}
@@ -0,0 +1,18 @@
+package com.kakarotabhi.idmclone.dto;
+
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+
+import java.time.LocalDateTime;
+
+/** One row of a download listing; selected straight from {@code downloads} without the segments. */
+public record DownloadSummary(
+        Long id,
+        String url,
+        String fileName,
+        long totalBytes,
+        DownloadStatus status,
+        int priority,
+        Boolean checksumVerified,
+        LocalDateTime createdAt,
+        LocalDateTime updatedAt) {
+}
@@ -0,0 +1,34 @@
+package com.kakarotabhi.idmclone.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Entity
+// Looked up by content when a download names its checksum; evicted least recently used first
+@Table(name = "cache_entries", indexes = {
+        @Index(name = "idx_cache_entries_sha256", columnList = "sha256"),
+        @Index(name = "idx_cache_entries_checksum", columnList = "checksum"),
+        @Index(name = "idx_cache_entries_last_used_at", columnList = "last_used_at")})
+@Getter
+@Setter
+public class CacheEntry {
+    @Id
+    private String id;                // SHA-256 of the URL and the validator it was downloaded under
+    @Column(length = 5000)
+    private String url;
+    @Column(length = 1024)
+    private String validator;         // strong ETag or Last-Modified; null when only the checksum vouches for it
+    private String sha256;            // content address of the blob
+    private String checksumAlgorithm; // checksum the download was verified against, if any
+    private String checksum;
+    private long sizeBytes;
+    private long blobModifiedAt;      // a blob written through a hardlink since admission no longer matches
+    private LocalDateTime lastUsedAt;
+}
@@ -10,7 +10,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "downloads")
+// Listings filter by status and sort by last change
+@Table(name = "downloads", indexes = @Index(name = "idx_downloads_status_updated_at", columnList = "status, updated_at"))
 @Getter
 @Setter
 public class Download {
@@ -19,7 +20,24 @@ public class Download {
     @Column(length = 5000) // or more if needed
     private String url;
     private String fileName;    // local path to save
-    private long totalBytes;    // total size (optional, can set after HEAD request)
+    private long totalBytes;    // total size; -1 for a stream whose length is only known at its end
+    private boolean adaptive;   // connection count tuned from measured throughput
+    private boolean streaming;     // one connection reading the whole response, no parallel ranges
+    private boolean acceptsRanges; // a stopped stream continues with bytes=N- instead of starting over
+    private int priority;       // higher starts first and gets a bigger share of a saturated bandwidth limit
+    private long queuePosition; // start order among queued downloads of the same priority
+    private String checksumAlgorithm; // SHA-256, MD5 or CRC32C; null when there is nothing to verify
+    private String expectedChecksum;  // lowercase hex
+    private Boolean checksumVerified; // null until the whole file has been hashed
+    private String contentSha256;     // SHA-256 of the finished file, hashed as it arrived; keys the content cache
+    @Column(length = 1024)
+    private String etag;              // validators of the version being downloaded, from the probe
+    private String lastModified;
+    @Column(length = 20000)
+    private String mirrors;           // other URLs of the same file that passed the probe, one per line
+    private String postProcess;       // stages run on the file as it arrives, comma-separated; null for none
+    @Column(length = 2000)
+    private String postProcessStatus; // RUNNING, COMPLETED or FAILED: <reason>; null until the stages start
 
     @Enumerated(EnumType.STRING)
     private DownloadStatus status = DownloadStatus.PENDING;
@@ -27,8 +45,8 @@ public class Download {
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
-    // One-to-many relationship to segment info
-    @OneToMany(mappedBy = "download", cascade = CascadeType.ALL, fetch = FetchType.EAGER)
+    // One-to-many relationship to segment info; load with SegmentInfoRepository.findByDownloadId
+    @OneToMany(mappedBy = "download", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     private List<SegmentInfo> segments = new ArrayList<>();
 
 }
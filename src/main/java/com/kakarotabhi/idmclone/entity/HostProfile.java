@@ -0,0 +1,21 @@
+package com.kakarotabhi.idmclone.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Getter
+@Setter
+public class HostProfile {
+    @Id
+    private String host;
+
+    // Connection count that gave the best throughput last time we downloaded from this host
+    private int connections;
+
+    private LocalDateTime updatedAt;
+}
@@ -22,7 +22,7 @@ public class SegmentInfo {
     @Enumerated(EnumType.STRING)
     private SegmentStatus status = SegmentStatus.PENDING;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "download_id")
     private Download download;
 
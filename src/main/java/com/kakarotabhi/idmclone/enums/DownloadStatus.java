@@ -1,5 +1,5 @@
 package com.kakarotabhi.idmclone.enums;
 
 public enum DownloadStatus {
-    PENDING, DOWNLOADING, PAUSED, COMPLETED, FAILED, CANCELLED
+    PROBING, PENDING, WAITING, DOWNLOADING, PAUSED, COMPLETED, FAILED, CANCELLED
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package com.kakarotabhi.idmclone.repository;
+
+import com.kakarotabhi.idmclone.entity.CacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.Optional;
+
+public interface CacheEntryRepository extends JpaRepository<CacheEntry, String> {
+
+    Optional<CacheEntry> findFirstBySha256(String sha256);
+
+    Optional<CacheEntry> findFirstByChecksumAlgorithmAndChecksum(String checksumAlgorithm, String checksum);
+
+    Optional<CacheEntry> findFirstByOrderByLastUsedAtAsc();
+
+    long countBySha256(String sha256);
+
+    // Entries with the same content share one blob, so each blob is counted once
+    @Query("select coalesce(sum(e.sizeBytes), 0) from CacheEntry e"
+            + " where e.id in (select min(b.id) from CacheEntry b group by b.sha256)")
+    long blobBytes();
+}
@@ -1,10 +1,72 @@
 package com.kakarotabhi.idmclone.repository;
 
+import com.kakarotabhi.idmclone.dto.DownloadSummary;
 import com.kakarotabhi.idmclone.entity.Download;
-import com.kakarotabhi.idmclone.entity.SegmentInfo;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
-public interface DownloadRepository extends JpaRepository<Download, Long> { }
+public interface DownloadRepository extends JpaRepository<Download, Long> {
+
+    long countByStatus(DownloadStatus status);
+
+    boolean existsByFileNameAndStatusIn(String fileName, Collection<DownloadStatus> statuses);
+
+    /** A page of downloads in the given states, without their segments; sort by entity property names. */
+    @Query(value = "select new com.kakarotabhi.idmclone.dto.DownloadSummary(d.id, d.url, d.fileName, d.totalBytes, "
+            + "d.status, d.priority, d.checksumVerified, d.createdAt, d.updatedAt) "
+            + "from Download d where d.status in :statuses",
+            countQuery = "select count(d) from Download d where d.status in :statuses")
+    Page<DownloadSummary> findSummariesByStatusIn(@Param("statuses") Collection<DownloadStatus> statuses,
+                                                  Pageable pageable);
+
+    Download findFirstByStatusOrderByPriorityDescQueuePositionAscIdAsc(DownloadStatus status);
+
+    List<Download> findByStatusOrderByPriorityDescQueuePositionAscIdAsc(DownloadStatus status);
+
+    @Query("select coalesce(max(d.queuePosition), 0) from Download d")
+    long maxQueuePosition();
+
+    @Transactional
+    @Modifying
+    @Query("update Download d set d.totalBytes = :totalBytes where d.id = :id")
+    int updateTotalBytes(@Param("id") Long id, @Param("totalBytes") long totalBytes);
+
+    @Transactional
+    @Modifying
+    @Query("update Download d set d.checksumVerified = :verified where d.id = :id")
+    int updateChecksumVerified(@Param("id") Long id, @Param("verified") Boolean verified);
+
+    @Transactional
+    @Modifying
+    @Query("update Download d set d.postProcessStatus = :postProcessStatus where d.id = :id")
+    int updatePostProcessStatus(@Param("id") Long id, @Param("postProcessStatus") String postProcessStatus);
+
+    List<Download> findByStatusAndPostProcessStatus(DownloadStatus status, String postProcessStatus);
+
+    @Transactional
+    @Modifying
+    @Query("update Download d set d.contentSha256 = :sha256 where d.id = :id")
+    int updateContentSha256(@Param("id") Long id, @Param("sha256") String sha256);
+
+    @Transactional
+    @Modifying
+    @Query("update Download d set d.status = :to where d.status = :from")
+    int updateAllStatus(@Param("from") DownloadStatus from, @Param("to") DownloadStatus to);
+
+    @Transactional
+    @Modifying
+    @Query("update Download d set d.status = :status, d.updatedAt = :updatedAt where d.id = :id")
+    int updateStatus(@Param("id") Long id, @Param("status") DownloadStatus status,
+                     @Param("updatedAt") LocalDateTime updatedAt);
+}
 
@@ -0,0 +1,6 @@
+package com.kakarotabhi.idmclone.repository;
+
+import com.kakarotabhi.idmclone.entity.HostProfile;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface HostProfileRepository extends JpaRepository<HostProfile, String> { }
@@ -2,9 +2,18 @@ package com.kakarotabhi.idmclone.repository;
 
 import com.kakarotabhi.idmclone.entity.SegmentInfo;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
 public interface SegmentInfoRepository extends JpaRepository<SegmentInfo, Long> {
     List<SegmentInfo> findByDownloadId(Long downloadId);
+
+    @Transactional
+    @Modifying
+    @Query("update SegmentInfo s set s.endByte = :endByte where s.id = :id")
+    int updateEndByte(@Param("id") Long id, @Param("endByte") long endByte);
 }
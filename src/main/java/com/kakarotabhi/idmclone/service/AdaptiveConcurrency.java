@@ -0,0 +1,162 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.entity.HostProfile;
+import com.kakarotabhi.idmclone.repository.HostProfileRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Picks the connection count of adaptive downloads.
+ * <p>
+ * A download starts with the count remembered for its host (or a small default) and
+ * gains one connection per sampling interval while aggregate throughput keeps rising.
+ * When throughput flattens the last step is undone; a 429/503 from the server removes
+ * a connection. The settled value is stored per host for the next download.
+ */
+@Component
+public class AdaptiveConcurrency {
+
+    @Autowired
+    private HostProfileRepository hostProfileRepo;
+
+    @Value("${download.adaptive.enabled:true}")
+    private boolean enabled;
+
+    @Value("${download.adaptive.initial-connections:2}")
+    private int initialConnections;
+
+    @Value("${download.adaptive.max-connections:16}")
+    private int maxConnections;
+
+    // Relative throughput gain that justifies keeping an extra connection
+    @Value("${download.adaptive.min-gain:0.1}")
+    private double minGain;
+
+    private final ConcurrentMap<Long, State> states = new ConcurrentHashMap<>();
+
+    private static class State {
+        final String host;
+        int target;
+        double bestThroughput;
+        long lastBytes = -1;
+        long lastNanos;
+        boolean settled;
+        volatile boolean throttled;
+
+        State(String host, int target) {
+            this.host = host;
+            this.target = target;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Connection count a new download from this URL should start with. */
+    public int initialConnections(String url) {
+        return hostProfileRepo.findById(SegmentScheduler.hostOf(url))
+                .map(HostProfile::getConnections)
+                .orElse(initialConnections);
+    }
+
+    public void register(Long downloadId, String url, int connections) {
+        states.put(downloadId, new State(SegmentScheduler.hostOf(url),
+                Math.max(1, Math.min(connections, maxConnections))));
+    }
+
+    public boolean isManaged(Long downloadId) {
+        return states.containsKey(downloadId);
+    }
+
+    public int getTarget(Long downloadId) {
+        State state = states.get(downloadId);
+        return state != null ? state.target : 0;
+    }
+
+    /** Forget the download and remember its connection count for the host. */
+    public void unregister(Long downloadId) {
+        State state = states.remove(downloadId);
+        if (state != null) {
+            remember(state);
+        }
+    }
+
+    /** Start sampling again from the next call to {@link #evaluate}, e.g. after a pause. */
+    public void resetBaseline(Long downloadId) {
+        State state = states.get(downloadId);
+        if (state != null) {
+            synchronized (state) {
+                state.lastBytes = -1;
+            }
+        }
+    }
+
+    public void onThrottled(Long downloadId) {
+        State state = states.get(downloadId);
+        if (state != null) {
+            state.throttled = true;
+        }
+    }
+
+    /**
+     * Feed the bytes transferred so far and get the connection count to use from now on.
+     */
+    public int evaluate(Long downloadId, long bytesTransferred) {
+        State state = states.get(downloadId);
+        if (state == null) {
+            return 0;
+        }
+        synchronized (state) {
+            long now = System.nanoTime();
+            if (state.lastBytes < 0) {
+                state.lastBytes = bytesTransferred;
+                state.lastNanos = now;
+                return state.target;
+            }
+            double throughput = (bytesTransferred - state.lastBytes) * 1e9 / Math.max(1, now - state.lastNanos);
+            state.lastBytes = bytesTransferred;
+            state.lastNanos = now;
+
+            if (state.throttled) {
+                // The server pushes back: give up a connection and stop probing for more
+                state.throttled = false;
+                state.target = Math.max(1, state.target - 1);
+                state.settled = true;
+                remember(state);
+            } else if (!state.settled) {
+                if (throughput > state.bestThroughput * (1 + minGain)) {
+                    state.bestThroughput = throughput;
+                    if (state.target < maxConnections) {
+                        state.target++;
+                    } else {
+                        state.settled = true;
+                        remember(state);
+                    }
+                } else {
+                    // The last connection did not pay for itself
+                    state.target = Math.max(1, state.target - 1);
+                    state.settled = true;
+                    remember(state);
+                }
+            }
+            return state.target;
+        }
+    }
+
+    private void remember(State state) {
+        if (state.host.isEmpty()) {
+            return;
+        }
+        HostProfile profile = new HostProfile();
+        profile.setHost(state.host);
+        profile.setConnections(state.target);
+        profile.setUpdatedAt(LocalDateTime.now());
+        hostProfileRepo.save(profile);
+    }
+}
@@ -0,0 +1,237 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.TokenBucket;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps transfer rates globally, per host and per download.
+ * <p>
+ * The global rate comes from a runtime override, else from the time-of-day schedule, else
+ * from {@code download.bandwidth.global-bytes-per-second}. When the global limit is the
+ * bottleneck, every second the budget is re-divided between the active downloads by
+ * priority weight ({@code 1 + priority}, at least 1), handing what a download leaves unused
+ * to the others.
+ */
+@Component
+public class BandwidthGovernor {
+    // Keeps a low-priority share from sleeping for seconds on a single buffer
+    private static final long MIN_SHARE = 64 * 1024;
+
+    @Value("${download.bandwidth.global-bytes-per-second:0}")
+    private long configuredGlobalRate;
+
+    // e.g. 08:00-18:00=1048576,18:00-08:00=0
+    @Value("${download.bandwidth.schedule:}")
+    private String scheduleSpec;
+
+    private final TokenBucket global = new TokenBucket(0);
+    private final ConcurrentMap<String, TokenBucket> hosts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, TokenBucket> downloads = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Share> shares = new ConcurrentHashMap<>();
+    private final List<Window> schedule = new ArrayList<>();
+    private volatile Long globalOverride;
+
+    private record Window(LocalTime from, LocalTime to, long bytesPerSecond) {
+        boolean contains(LocalTime time) {
+            return from.isBefore(to)
+                    ? !time.isBefore(from) && time.isBefore(to)
+                    : !time.isBefore(from) || time.isBefore(to); // wraps past midnight
+        }
+    }
+
+    // Priority-weighted slice of the global budget held by one active download
+    private static class Share {
+        final TokenBucket bucket = new TokenBucket(0);
+        final LongAdder used = new LongAdder();
+        volatile int priority;
+        long lastUsed;
+
+        Share(int priority) {
+            this.priority = priority;
+        }
+
+        int weight() {
+            return Math.max(1, priority + 1);
+        }
+    }
+
+    @PostConstruct
+    void parseSchedule() {
+        for (String entry : scheduleSpec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] rangeAndRate = entry.trim().split("=");
+            String[] range = rangeAndRate[0].split("-");
+            schedule.add(new Window(LocalTime.parse(range[0].trim()), LocalTime.parse(range[1].trim()),
+                    Long.parseLong(rangeAndRate[1].trim())));
+        }
+        global.setRate(currentGlobalRate());
+    }
+
+    public void register(Long downloadId, int priority) {
+        shares.computeIfAbsent(downloadId, id -> new Share(priority)).priority = priority;
+    }
+
+    /** Forget a download that stopped for good, including its own rate limit. */
+    public void unregister(Long downloadId) {
+        shares.remove(downloadId);
+        downloads.remove(downloadId);
+    }
+
+    /**
+     * Block until {@code bytes} may be passed on for this download. Called from the copy loop
+     * after every read.
+     */
+    public void acquire(Long downloadId, String host, int bytes) throws InterruptedIOException {
+        long now = System.nanoTime();
+        long wait = global.reserve(bytes, now);
+        TokenBucket hostBucket = hosts.get(host);
+        if (hostBucket != null) {
+            wait = Math.max(wait, hostBucket.reserve(bytes, now));
+        }
+        TokenBucket downloadBucket = downloads.get(downloadId);
+        if (downloadBucket != null) {
+            wait = Math.max(wait, downloadBucket.reserve(bytes, now));
+        }
+        Share share = shares.get(downloadId);
+        if (share != null) {
+            share.used.add(bytes);
+            wait = Math.max(wait, share.bucket.reserve(bytes, now));
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+    }
+
+    /** Set the global rate until {@link #clearGlobalOverride()}; zero means unlimited. */
+    public void setGlobalOverride(long bytesPerSecond) {
+        globalOverride = bytesPerSecond;
+        global.setRate(bytesPerSecond);
+    }
+
+    public void clearGlobalOverride() {
+        globalOverride = null;
+        global.setRate(currentGlobalRate());
+    }
+
+    public void setHostRate(String host, long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            hosts.remove(host.toLowerCase());
+        } else {
+            hosts.computeIfAbsent(host.toLowerCase(), h -> new TokenBucket(0)).setRate(bytesPerSecond);
+        }
+    }
+
+    public void setDownloadRate(Long downloadId, long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            downloads.remove(downloadId);
+        } else {
+            downloads.computeIfAbsent(downloadId, id -> new TokenBucket(0)).setRate(bytesPerSecond);
+        }
+    }
+
+    public long getGlobalRate() {
+        return global.getRate();
+    }
+
+    public boolean isGlobalOverridden() {
+        return globalOverride != null;
+    }
+
+    public Map<String, Long> getHostRates() {
+        Map<String, Long> rates = new HashMap<>();
+        hosts.forEach((host, bucket) -> rates.put(host, bucket.getRate()));
+        return rates;
+    }
+
+    public Map<Long, Long> getDownloadRates() {
+        Map<Long, Long> rates = new HashMap<>();
+        downloads.forEach((id, bucket) -> rates.put(id, bucket.getRate()));
+        return rates;
+    }
+
+    private long currentGlobalRate() {
+        Long override = globalOverride;
+        if (override != null) {
+            return override;
+        }
+        LocalTime now = LocalTime.now();
+        for (Window window : schedule) {
+            if (window.contains(now)) {
+                return window.bytesPerSecond();
+            }
+        }
+        return configuredGlobalRate;
+    }
+
+    /**
+     * Apply the schedule and re-divide the global budget. Shares only apply while the global
+     * limit is saturated; otherwise every download may go as fast as its own limits allow.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void rebalance() {
+        long rate = currentGlobalRate();
+        global.setRate(rate);
+
+        List<Share> active = new ArrayList<>();
+        long total = 0;
+        for (Share share : shares.values()) {
+            share.lastUsed = share.used.sumThenReset();
+            total += share.lastUsed;
+            if (share.lastUsed > 0) {
+                active.add(share);
+            }
+        }
+        if (rate <= 0 || total < rate * 0.9 || active.size() < 2) {
+            shares.values().forEach(s -> s.bucket.setRate(0));
+            return;
+        }
+        shares.values().stream().filter(s -> s.lastUsed == 0).forEach(s -> s.bucket.setRate(0));
+        // Water-filling: a download that used clearly less than its last share is satisfied
+        // at its usage; what it leaves is split by weight between the others
+        long remaining = rate;
+        List<Share> hungry = new ArrayList<>();
+        Map<Share, Long> satisfied = new HashMap<>();
+        for (Share share : active) {
+            long previous = share.bucket.getRate();
+            if (previous > 0 && share.lastUsed < previous * 0.9) {
+                long allowance = share.lastUsed + share.lastUsed / 10;
+                satisfied.put(share, allowance);
+                remaining -= allowance;
+            } else {
+                hungry.add(share);
+            }
+        }
+        if (remaining < rate / 10 * hungry.size()) {
+            // Demand moved faster than the shares; start over from plain weights
+            hungry = active;
+            satisfied.clear();
+            remaining = rate;
+        }
+        satisfied.forEach((share, allowance) -> share.bucket.setRate(Math.max(MIN_SHARE, allowance)));
+        int weights = hungry.stream().mapToInt(Share::weight).sum();
+        for (Share share : hungry) {
+            share.bucket.setRate(Math.max(MIN_SHARE, remaining * share.weight() / weights));
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.Checksums;
+import com.kakarotabhi.idmclone.entity.CacheEntry;
+import com.kakarotabhi.idmclone.entity.Download;
+import com.kakarotabhi.idmclone.entity.SegmentInfo;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import com.kakarotabhi.idmclone.enums.SegmentStatus;
+import com.kakarotabhi.idmclone.repository.CacheEntryRepository;
+import com.kakarotabhi.idmclone.repository.DownloadRepository;
+import com.kakarotabhi.idmclone.repository.SegmentInfoRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Local copies of finished downloads, so the same artifact is not fetched again.
+ * <p>
+ * Files are stored once per content, named by their SHA-256 under {@code download.cache.dir},
+ * and found either by URL plus validator (strong ETag, else Last-Modified) or, for a download
+ * that names its checksum, by content. A hit is hardlinked to the download's file name, or
+ * copied when the cache is on another file system. The least recently used entries are
+ * evicted once the blobs exceed {@code download.cache.max-bytes}.
+ * <p>
+ * Requests for a URL that is already being downloaded under the same validator wait as
+ * {@link DownloadStatus#WAITING} and get the file of that transfer when it completes; when it
+ * fails or is cancelled, the first of them downloads it instead.
+ */
+@Component
+public class ContentCache {
+
+    private static final Set<DownloadStatus> SETTLED =
+            Set.of(DownloadStatus.COMPLETED, DownloadStatus.FAILED, DownloadStatus.CANCELLED);
+
+    @Autowired
+    private CacheEntryRepository cacheRepo;
+
+    @Autowired
+    private DownloadRepository downloadRepo;
+
+    @Autowired
+    private SegmentInfoRepository segmentRepo;
+
+    @Autowired
+    private DownloadQueue downloadQueue;
+
+    @Autowired
+    private PostProcessor postProcessor;
+
+    @Value("${download.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${download.cache.dir:./download_cache}")
+    private Path dir;
+
+    @Value("${download.cache.max-bytes:10737418240}")
+    private long maxBytes;
+
+    // Hardlink hits to the download's file name; false always copies
+    @Value("${download.cache.link:true}")
+    private boolean link;
+
+    // URL + validator -> the download fetching it, and the downloads waiting on each
+    private final Map<String, Long> inFlight = new ConcurrentHashMap<>();
+    private final Map<Long, List<Long>> waiting = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Complete a new download from the cache; false on a miss. A download with an expected
+     * checksum only takes a copy with that checksum.
+     */
+    public boolean complete(Download download) {
+        if (!enabled) {
+            return false;
+        }
+        Optional<CacheEntry> hit;
+        if (download.getExpectedChecksum() != null) {
+            hit = Checksums.SHA_256.equals(download.getChecksumAlgorithm())
+                    ? cacheRepo.findFirstBySha256(download.getExpectedChecksum())
+                    : cacheRepo.findFirstByChecksumAlgorithmAndChecksum(download.getChecksumAlgorithm(), download.getExpectedChecksum());
+        } else {
+            String validator = validator(download);
+            hit = validator != null ? cacheRepo.findById(entryId(download.getUrl(), validator)) : Optional.empty();
+        }
+        if (hit.isEmpty()) {
+            return false;
+        }
+        CacheEntry entry = hit.get();
+        Path blob = blob(entry.getSha256());
+        try {
+            if (!Files.exists(blob) || Files.size(blob) != entry.getSizeBytes()
+                    || Files.getLastModifiedTime(blob).toMillis() != entry.getBlobModifiedAt()) {
+                remove(entry); // changed or deleted behind our back
+                return false;
+            }
+            completeFrom(download, blob, entry.getSizeBytes());
+        } catch (IOException e) {
+            return false;
+        }
+        if (download.getExpectedChecksum() != null) {
+            download.setChecksumVerified(true);
+            downloadRepo.updateChecksumVerified(download.getId(), true);
+        }
+        entry.setLastUsedAt(LocalDateTime.now());
+        cacheRepo.save(entry);
+        return true;
+    }
+
+    /**
+     * Let a new download wait for an identical one in flight instead of fetching the URL again;
+     * false when it is the first and should be queued.
+     */
+    public synchronized boolean coalesce(Download download) {
+        String key = flightKey(download);
+        Long leader = inFlight.get(key);
+        if (leader != null && downloadRepo.findById(leader).map(d -> !SETTLED.contains(d.getStatus())).orElse(false)) {
+            waiting.computeIfAbsent(leader, id -> new ArrayList<>()).add(download.getId());
+            download.setStatus(DownloadStatus.WAITING);
+            downloadRepo.updateStatus(download.getId(), DownloadStatus.WAITING, LocalDateTime.now());
+            return true;
+        }
+        inFlight.put(key, download.getId());
+        return false;
+    }
+
+    @EventListener
+    public void onStatusChange(DownloadStatusEvent event) {
+        if (SETTLED.contains(event.status())) {
+            // Hashing and copying stay off the segment worker that published this
+            executor.submit(() -> settle(event.downloadId(), event.status()));
+        }
+    }
+
+    // Downloads cancelled or deleted while queued publish no event
+    @Scheduled(fixedDelay = 5000)
+    public void sweep() {
+        for (Long leader : List.copyOf(inFlight.values())) {
+            DownloadStatus status = downloadRepo.findById(leader).map(Download::getStatus).orElse(DownloadStatus.CANCELLED);
+            if (SETTLED.contains(status)) {
+                settle(leader, status);
+            }
+        }
+    }
+
+    // Cache a completed download and hand it to the ones waiting on it, or let one of them take over
+    private void settle(Long downloadId, DownloadStatus status) {
+        List<Long> followers;
+        synchronized (this) {
+            inFlight.values().remove(downloadId);
+            followers = waiting.remove(downloadId);
+        }
+        Download download = downloadRepo.findById(downloadId).orElse(null);
+        if (status == DownloadStatus.COMPLETED && download != null) {
+            admit(download);
+            if (followers != null) {
+                Path file = Path.of(download.getFileName());
+                for (Long id : followers) {
+                    downloadRepo.findById(id)
+                            .filter(d -> d.getStatus() == DownloadStatus.WAITING)
+                            .ifPresent(d -> {
+                                try {
+                                    completeFrom(d, file, Files.size(file));
+                                    if (download.getChecksumVerified() != null) {
+                                        downloadRepo.updateChecksumVerified(id, download.getChecksumVerified());
+                                    }
+                                } catch (IOException e) {
+                                    d.setStatus(DownloadStatus.FAILED);
+                                    downloadRepo.updateStatus(id, DownloadStatus.FAILED, LocalDateTime.now());
+                                }
+                            });
+                }
+            }
+        } else if (followers != null) {
+            promote(followers);
+        }
+    }
+
+    // The first download still waiting fetches the file itself; the others wait on it
+    private synchronized void promote(List<Long> followers) {
+        List<Long> left = new ArrayList<>(followers);
+        while (!left.isEmpty()) {
+            Download next = downloadRepo.findById(left.remove(0))
+                    .filter(d -> d.getStatus() == DownloadStatus.WAITING)
+                    .orElse(null);
+            if (next != null) {
+                inFlight.put(flightKey(next), next.getId());
+                if (!left.isEmpty()) {
+                    waiting.put(next.getId(), left);
+                }
+                downloadRepo.updateStatus(next.getId(), DownloadStatus.PENDING, LocalDateTime.now());
+                downloadQueue.dispatch();
+                return;
+            }
+        }
+    }
+
+    // Store a completed download under its URL and content, when a validator or checksum identifies it
+    private void admit(Download download) {
+        String validator = validator(download);
+        boolean verified = Boolean.TRUE.equals(download.getChecksumVerified());
+        if (!enabled || (validator == null && !verified)) {
+            return;
+        }
+        Path file = Path.of(download.getFileName());
+        try {
+            long size = Files.size(file);
+            if (size > maxBytes) {
+                return;
+            }
+            // Hashed as it arrived; reading the file again for it would be a second pass over every download
+            String sha256 = download.getContentSha256() != null ? download.getContentSha256()
+                    : verified && Checksums.SHA_256.equals(download.getChecksumAlgorithm()) ? download.getExpectedChecksum()
+                    : null;
+            if (sha256 == null) {
+                return;
+            }
+            Path blob = blob(sha256);
+            if (!Files.exists(blob)) {
+                Files.createDirectories(blob.getParent());
+                place(file, blob);
+            }
+            CacheEntry entry = new CacheEntry();
+            entry.setId(entryId(download.getUrl(), validator));
+            entry.setUrl(download.getUrl());
+            entry.setValidator(validator);
+            entry.setSha256(sha256);
+            if (verified) {
+                entry.setChecksumAlgorithm(download.getChecksumAlgorithm());
+                entry.setChecksum(download.getExpectedChecksum());
+            }
+            entry.setSizeBytes(size);
+            entry.setBlobModifiedAt(Files.getLastModifiedTime(blob).toMillis());
+            entry.setLastUsedAt(LocalDateTime.now());
+            cacheRepo.save(entry);
+            evict();
+        } catch (IOException e) {
+            // not cached; the download itself is unaffected
+        }
+    }
+
+    // Drop least recently used entries until the blobs fit
+    private synchronized void evict() {
+        while (cacheRepo.blobBytes() > maxBytes) {
+            Optional<CacheEntry> oldest = cacheRepo.findFirstByOrderByLastUsedAtAsc();
+            if (oldest.isEmpty()) {
+                return;
+            }
+            remove(oldest.get());
+        }
+    }
+
+    private void remove(CacheEntry entry) {
+        cacheRepo.delete(entry);
+        if (cacheRepo.countBySha256(entry.getSha256()) == 0) {
+            try {
+                Files.deleteIfExists(blob(entry.getSha256()));
+            } catch (IOException e) {
+                // an orphaned blob only takes space
+            }
+        }
+    }
+
+    // Put the file in place and record the download as completed with a single finished segment
+    private void completeFrom(Download download, Path source, long size) throws IOException {
+        Path target = Path.of(download.getFileName());
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        // Default names are unique, but a caller can pick the name of the file being coalesced on, or of
+        // one already linked to the cached blob; either way it is in place, and deleting it could lose the source
+        if (!Files.exists(target) || !Files.isSameFile(source, target)) {
+            Files.deleteIfExists(target);
+            place(source, target);
+        }
+
+        segmentRepo.deleteAll(segmentRepo.findByDownloadId(download.getId()));
+        SegmentInfo seg = new SegmentInfo();
+        seg.setSegmentIndex(0);
+        seg.setStartByte(0);
+        seg.setEndByte(size - 1);
+        seg.setDownloadedBytes(size);
+        seg.setStatus(SegmentStatus.COMPLETED);
+        seg.setDownload(download);
+        segmentRepo.save(seg);
+
+        // Update the row only, like the engine does, so the segment list it was loaded with is not cascaded
+        download.setTotalBytes(size);
+        download.setStatus(DownloadStatus.COMPLETED);
+        download.setUpdatedAt(LocalDateTime.now());
+        downloadRepo.updateTotalBytes(download.getId(), size);
+        downloadRepo.updateStatus(download.getId(), DownloadStatus.COMPLETED, download.getUpdatedAt());
+        // Its stages never saw the file arrive; they read it whole
+        postProcessor.finish(download);
+    }
+
+    // Hardlink, or copy across file systems and where links are not supported
+    private void place(Path source, Path target) throws IOException {
+        if (link) {
+            try {
+                Files.createLink(target, source);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                // fall through to a copy
+            }
+        }
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path blob(String sha256) {
+        return dir.resolve(sha256.substring(0, 2)).resolve(sha256);
+    }
+
+    private static String validator(Download download) {
+        return new HttpTransport.Validators(download.getEtag(), download.getLastModified()).ifRange();
+    }
+
+    // Downloads of one URL coalesce only when they expect the same version
+    private static String flightKey(Download download) {
+        String validator = validator(download);
+        return download.getUrl() + "\n" + (validator != null ? validator : "");
+    }
+
+    private static String entryId(String url, String validator) {
+        Checksums.Hasher hasher = Checksums.newHasher(Checksums.SHA_256);
+        hasher.update(ByteBuffer.wrap((url + "\n" + (validator != null ? validator : "")).getBytes(StandardCharsets.UTF_8)));
+        return hasher.hex();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,148 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.BlockBitmap;
+import com.kakarotabhi.idmclone.downloader.BufferPool;
+import com.kakarotabhi.idmclone.downloader.DownloadFile;
+import com.kakarotabhi.idmclone.entity.Download;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out the shared {@link DownloadFile} of each download to its segment workers and
+ * closes it when the last worker lets go. Also owns the pool of direct transfer buffers and
+ * the {@link BlockBitmap} sidecar of each unfinished download.
+ */
+@Component
+public class DownloadFiles {
+
+    @Value("${download.io.preallocate:true}")
+    private boolean preallocate;
+
+    // Keep a <file>.part.idx of the blocks on disk; blocks match the integrity check's
+    @Value("${download.io.block-index:true}")
+    private boolean blockIndex;
+
+    @Value("${download.integrity.block-size:1048576}")
+    private int blockSize;
+
+    private final BufferPool bufferPool;
+
+    private final Map<Long, DownloadFile> files = new HashMap<>();
+    private final Map<Long, Integer> refs = new HashMap<>();
+    private final Map<Long, BlockBitmap> bitmaps = new HashMap<>();
+
+    public DownloadFiles(@Value("${download.io.buffer-size:65536}") int bufferSize,
+                         @Value("${download.io.max-pooled-buffers:256}") int maxPooledBuffers) {
+        this.bufferPool = new BufferPool(bufferSize, maxPooledBuffers);
+    }
+
+    /** Size of the blocks the index and the integrity check track. */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public synchronized DownloadFile acquire(Long downloadId, String fileName) throws IOException {
+        DownloadFile file = files.get(downloadId);
+        if (file == null) {
+            file = new DownloadFile(Path.of(fileName));
+            files.put(downloadId, file);
+        }
+        refs.merge(downloadId, 1, Integer::sum);
+        return file;
+    }
+
+    public synchronized void release(Long downloadId, DownloadFile file) {
+        if (files.get(downloadId) != file) {
+            return; // already closed, possibly replaced by a fresh channel
+        }
+        Integer count = refs.computeIfPresent(downloadId, (id, n) -> n > 1 ? n - 1 : null);
+        if (count == null) {
+            close(downloadId);
+        }
+    }
+
+    /** Close the channel regardless of who still holds it, e.g. before the file is deleted. */
+    public synchronized void close(Long downloadId) {
+        refs.remove(downloadId);
+        DownloadFile file = files.remove(downloadId);
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // nothing left to flush
+            }
+        }
+    }
+
+    /**
+     * The block index of a download, opened or created on first use. Null when indexes are off,
+     * the length is not known yet, or the sidecar cannot be written; callers then rely on the
+     * segment offsets alone.
+     */
+    public synchronized BlockBitmap bitmap(Download download) {
+        BlockBitmap bitmap = bitmaps.get(download.getId());
+        if (bitmap != null || !blockIndex || download.getTotalBytes() <= 0) {
+            return bitmap;
+        }
+        try {
+            bitmap = BlockBitmap.open(BlockBitmap.sidecar(download.getFileName()), blockSize, download.getTotalBytes());
+            bitmaps.put(download.getId(), bitmap);
+        } catch (IOException e) {
+            // no index for this download
+        }
+        return bitmap;
+    }
+
+    /** The block index of a download if it is open, without touching the disk. */
+    public synchronized BlockBitmap openBitmap(Long downloadId) {
+        return bitmaps.get(downloadId);
+    }
+
+    /** The block index if the download has one on disk; never creates the sidecar. */
+    public synchronized BlockBitmap existingBitmap(Download download) {
+        BlockBitmap bitmap = bitmaps.get(download.getId());
+        if (bitmap == null && Files.exists(BlockBitmap.sidecar(download.getFileName()))) {
+            bitmap = bitmap(download);
+        }
+        return bitmap;
+    }
+
+    /** Close and delete the block index, once the download is finished or its file is gone. */
+    public synchronized void dropBitmap(Long downloadId, String fileName) {
+        BlockBitmap bitmap = bitmaps.remove(downloadId);
+        try {
+            if (bitmap != null) {
+                bitmap.close();
+            }
+            Files.deleteIfExists(BlockBitmap.sidecar(fileName));
+        } catch (IOException e) {
+            // a stale index is replaced when its header does not match
+        }
+    }
+
+    /**
+     * Reserve the full size up front so segments far into the file do not extend it piecemeal.
+     * On most filesystems this creates a sparse file rather than allocating blocks.
+     */
+    public void preallocate(String fileName, long totalBytes) throws IOException {
+        if (!preallocate || totalBytes <= 0) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(fileName, "rw")) {
+            if (raf.length() < totalBytes) {
+                raf.setLength(totalBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.DownloadFile;
+import com.kakarotabhi.idmclone.downloader.DownloadProgress;
+import com.kakarotabhi.idmclone.downloader.HttpStatusException;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Meters and observations of the download pipeline, exported through Actuator
+ * ({@code /actuator/prometheus}).
+ * <p>
+ * Each segment is an {@code idm.segment} observation with child observations for its phases:
+ * {@code idm.http.range} until the response headers arrive (connect, TLS and first byte; the
+ * JDK client does not report them apart), {@code idm.segment.transfer} for the body and
+ * {@code idm.segment.fsync} for the final flush. Every observation is recorded as a timer, and
+ * as a span once a tracing bridge is on the classpath.
+ */
+@Component
+public class DownloadMetrics {
+
+    @Autowired
+    private MeterRegistry meters;
+
+    @Autowired
+    private ObservationRegistry observations;
+
+    @Autowired
+    private ProgressRegistry registry;
+
+    @Autowired
+    private SegmentScheduler scheduler;
+
+    private MultiGauge downloadSpeed;
+
+    /** A call that may fail with an {@link IOException}. */
+    public interface IoCall<T> {
+        T call() throws IOException;
+    }
+
+    @PostConstruct
+    void init() {
+        Gauge.builder("idm.segments.active", scheduler, SegmentScheduler::getActiveCount)
+                .description("Segment connections open")
+                .register(meters);
+        Gauge.builder("idm.segments.queued", scheduler, SegmentScheduler::getQueueDepth)
+                .description("Segments waiting for a connection slot")
+                .register(meters);
+        Gauge.builder("idm.downloads.active", registry, r -> r.all().stream()
+                        .filter(d -> d.getStatus() == DownloadStatus.DOWNLOADING).count())
+                .description("Downloads transferring")
+                .register(meters);
+        downloadSpeed = MultiGauge.builder("idm.download.speed")
+                .description("Bytes per second over the progress window")
+                .baseUnit("bytes")
+                .register(meters);
+    }
+
+    // One row per running download; stopped ones drop out
+    @Scheduled(fixedRate = 1000)
+    public void refresh() {
+        List<MultiGauge.Row<?>> rows = new ArrayList<>();
+        for (DownloadProgress download : registry.all()) {
+            if (download.getStatus() == DownloadStatus.DOWNLOADING) {
+                rows.add(MultiGauge.Row.of(Tags.of("download", String.valueOf(download.getDownloadId())),
+                        download, DownloadProgress::getBytesPerSecond));
+            }
+        }
+        downloadSpeed.register(rows, true);
+    }
+
+    /** Bytes written for a host; its rate is the host's throughput. */
+    public Counter bytes(String host) {
+        return Counter.builder("idm.download.bytes")
+                .baseUnit("bytes")
+                .tag("host", host)
+                .register(meters);
+    }
+
+    /** Time an HTTP exchange until its response headers, tagged with the status or the failure cause. */
+    public <T> HttpResponse<T> request(String name, String host, IoCall<HttpResponse<T>> call) throws IOException {
+        Observation observation = Observation.createNotStarted(name, observations)
+                .lowCardinalityKeyValue("host", host)
+                .start();
+        // Not observe(): the call throws IOException, which its Supplier cannot
+        Observation.Scope scope = observation.openScope();
+        try {
+            HttpResponse<T> response = call.call();
+            observation.lowCardinalityKeyValue("status", String.valueOf(response.statusCode()));
+            return response;
+        } catch (IOException e) {
+            observation.lowCardinalityKeyValue("status", cause(e));
+            observation.error(e);
+            throw e;
+        } finally {
+            scope.close();
+            observation.stop();
+        }
+    }
+
+    /** The observation of one segment transfer, not yet started. */
+    public Observation segment(Long downloadId, int segmentIndex, String host, boolean hedge) {
+        return Observation.createNotStarted("idm.segment", observations)
+                .lowCardinalityKeyValue("host", host)
+                .lowCardinalityKeyValue("hedge", String.valueOf(hedge))
+                .highCardinalityKeyValue("download", String.valueOf(downloadId))
+                .highCardinalityKeyValue("segment", String.valueOf(segmentIndex));
+    }
+
+    /** Start the body phase of a range request; the caller stops it. */
+    public Observation transfer(String host) {
+        return Observation.createNotStarted("idm.segment.transfer", observations)
+                .lowCardinalityKeyValue("host", host)
+                .start();
+    }
+
+    /** Flush a finished segment's bytes to disk. */
+    public void fsync(String host, DownloadFile file) throws IOException {
+        Observation observation = Observation.createNotStarted("idm.segment.fsync", observations)
+                .lowCardinalityKeyValue("host", host)
+                .start();
+        try {
+            file.force();
+        } catch (IOException e) {
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+
+    /** Time one batch of offsets written to the database. */
+    public void checkpoint(Runnable write) {
+        Observation.createNotStarted("idm.checkpoint", observations).observe(write);
+    }
+
+    public void retry(String host, String cause) {
+        Counter.builder("idm.segment.retries").tag("host", host).tag("cause", cause).register(meters).increment();
+    }
+
+    /** A segment gave up; also marks the segment's observation as failed. */
+    public void failure(String host, Throwable e) {
+        Counter.builder("idm.segment.failures").tag("host", host).tag("cause", cause(e)).register(meters).increment();
+        Observation current = observations.getCurrentObservation();
+        if (current != null) {
+            current.error(e);
+        }
+    }
+
+    /** Low-cardinality name for why a transfer failed. */
+    public static String cause(Throwable e) {
+        if (e instanceof HttpStatusException status) {
+            return "http_" + status.getStatusCode();
+        }
+        if (e instanceof HttpConnectTimeoutException || e instanceof ConnectException) {
+            return "connect";
+        }
+        if (e instanceof HttpTimeoutException || e instanceof SocketTimeoutException) {
+            return "timeout";
+        }
+        if (e instanceof InterruptedIOException || e instanceof ClosedByInterruptException) {
+            return "interrupted";
+        }
+        if (e instanceof IOException) {
+            return "io";
+        }
+        return "other";
+    }
+}
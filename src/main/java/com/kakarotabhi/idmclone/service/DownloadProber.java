@@ -0,0 +1,226 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.Checksums;
+import com.kakarotabhi.idmclone.entity.Download;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import com.kakarotabhi.idmclone.repository.DownloadRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Turns a submitted URL into a download ready to queue: probes it (through a cache of recent
+ * probes, {@code download.probe.cache-ttl-ms}), records what the server supports and plans
+ * the segments. Mirrors given with a download are kept only when they serve the same file.
+ * <p>
+ * Bulk submissions are stored as {@link DownloadStatus#PROBING} and probed in the background
+ * on virtual threads, at most {@code download.probe.max-concurrent} at a time and
+ * {@code download.probe.per-host} per host, then queued.
+ */
+@Component
+public class DownloadProber {
+
+    @Autowired
+    private HttpTransport http;
+
+    @Autowired
+    private DownloadRepository downloadRepo;
+
+    @Autowired
+    private DownloadService downloadService;
+
+    @Autowired
+    private DownloadQueue downloadQueue;
+
+    @Autowired
+    private ContentCache contentCache;
+
+    @Autowired
+    private AdaptiveConcurrency adaptive;
+
+    // Segment count when adaptive mode is off and the request does not ask for one
+    @Value("${download.segments.default:8}")
+    private int defaultSegments;
+
+    // How long a probe result is reused for the same URL; 0 probes every time
+    @Value("${download.probe.cache-ttl-ms:300000}")
+    private long cacheTtlMs;
+
+    @Value("${download.probe.cache-size:10000}")
+    private int cacheSize;
+
+    @Value("${download.probe.max-concurrent:32}")
+    private int maxConcurrent;
+
+    @Value("${download.probe.per-host:4}")
+    private int perHost;
+
+    private record Cached(HttpTransport.Probe probe, long expiresAt) { }
+
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+    private final Map<String, Semaphore> hostSlots = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private Semaphore slots;
+
+    /** Probe a URL, or reuse a probe of it younger than the cache TTL. */
+    public HttpTransport.Probe probe(String url) throws IOException {
+        long now = System.currentTimeMillis();
+        Cached cached = cache.get(url);
+        if (cached != null && cached.expiresAt() > now) {
+            return cached.probe();
+        }
+        HttpTransport.Probe probe = http.probe(url);
+        if (cacheTtlMs > 0) {
+            if (cache.size() >= cacheSize) {
+                cache.values().removeIf(c -> c.expiresAt() <= now);
+                if (cache.size() >= cacheSize) {
+                    cache.clear(); // all still fresh; start over rather than track age order
+                }
+            }
+            cache.put(url, new Cached(probe, now + cacheTtlMs));
+        }
+        return probe;
+    }
+
+    /**
+     * Record a probe on a download and plan its segments; the download ends up PENDING, ready to
+     * queue, or already COMPLETED from the cache or WAITING on an identical transfer.
+     */
+    public Download prepare(Download download, HttpTransport.Probe probe, Integer connections) {
+        download.setTotalBytes(probe.totalBytes());
+        // Without ranges or a length the file comes over one connection, start to end
+        download.setStreaming(!probe.segmented());
+        download.setAcceptsRanges(probe.acceptsRanges());
+        // Resumed ranges must come from this version of the file
+        HttpTransport.Validators validators = HttpTransport.Validators.of(probe.headers());
+        download.setEtag(validators.etag());
+        download.setLastModified(validators.lastModified());
+        if (download.getExpectedChecksum() == null) {
+            Checksums.fromHeaders(probe.headers()).ifPresent(expected -> {
+                download.setChecksumAlgorithm(expected.algorithm());
+                download.setExpectedChecksum(expected.hex());
+            });
+        }
+        download.setMirrors(download.isStreaming() ? null : matchingMirrors(download, probe));
+        download.setStatus(DownloadStatus.PENDING);
+        download.setUpdatedAt(LocalDateTime.now());
+        downloadRepo.save(download);
+        // A copy of this version may already be here, or on its way
+        if (contentCache.complete(download)) {
+            return download;
+        }
+
+        int segmentsCount;
+        if (download.isStreaming()) {
+            segmentsCount = 1;
+        } else if (connections != null && connections > 0) {
+            segmentsCount = connections;
+        } else if (adaptive.isEnabled()) {
+            segmentsCount = adaptive.initialConnections(download.getUrl());
+            download.setAdaptive(true);
+        } else {
+            segmentsCount = defaultSegments;
+        }
+        downloadRepo.save(download);
+        downloadService.planSegments(download, segmentsCount);
+        if (!probe.uri().equals(URI.create(download.getUrl()))) {
+            http.remember(download.getId(), download.getUrl(), probe.uri());
+        }
+        contentCache.coalesce(download);
+        return download;
+    }
+
+    // Mirrors asked for that serve the same file, by length and validators; the rest are left out
+    private String matchingMirrors(Download download, HttpTransport.Probe own) {
+        List<String> kept = new ArrayList<>();
+        for (String url : MirrorSet.parse(download.getMirrors())) {
+            if (url.equals(download.getUrl()) || kept.contains(url)) {
+                continue;
+            }
+            try {
+                if (MirrorSet.matches(own, probe(url))) {
+                    kept.add(url);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                // unreachable or not a URL; skipped like a mismatch
+            }
+        }
+        return kept.isEmpty() ? null : String.join("\n", kept);
+    }
+
+    /** Probe a stored PROBING download in the background, then queue it; a failed probe fails it. */
+    public void submit(Long downloadId, String url, Integer connections) {
+        executor.submit(() -> {
+            Semaphore host = hostSlots.computeIfAbsent(SegmentScheduler.hostOf(url), h -> new Semaphore(perHost));
+            try {
+                slots.acquire();
+                try {
+                    host.acquire();
+                    try {
+                        probeAndQueue(downloadId, url, connections);
+                    } finally {
+                        host.release();
+                    }
+                } finally {
+                    slots.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private void probeAndQueue(Long downloadId, String url, Integer connections) {
+        try {
+            HttpTransport.Probe probe = probe(url);
+            // Cancelled, paused or deleted while it waited for the probe
+            Download download = downloadRepo.findById(downloadId)
+                    .filter(d -> d.getStatus() == DownloadStatus.PROBING)
+                    .orElse(null);
+            if (download == null) {
+                return;
+            }
+            if (prepare(download, probe, connections).getStatus() == DownloadStatus.PENDING) {
+                downloadQueue.enqueue(download);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Nothing else reports an error here; left as it was, it would be probed again on every start
+            downloadRepo.findById(downloadId)
+                    .filter(d -> d.getStatus() == DownloadStatus.PROBING || d.getStatus() == DownloadStatus.PENDING)
+                    .ifPresent(d -> downloadRepo.updateStatus(downloadId, DownloadStatus.FAILED, LocalDateTime.now()));
+        }
+    }
+
+    // Probes cut off by the last shutdown start again; connection counts asked for are not kept
+    @EventListener(ApplicationReadyEvent.class)
+    public void reload() {
+        for (Download download : downloadRepo.findByStatusOrderByPriorityDescQueuePositionAscIdAsc(DownloadStatus.PROBING)) {
+            submit(download.getId(), download.getUrl(), null);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        slots = new Semaphore(maxConcurrent);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
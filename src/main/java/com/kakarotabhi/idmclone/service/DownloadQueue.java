@@ -0,0 +1,157 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.entity.Download;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import com.kakarotabhi.idmclone.repository.DownloadRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Admission control for downloads. New downloads wait as {@code PENDING} rows, ordered by
+ * priority (highest first) and then queue position, and are started while fewer than
+ * {@code download.queue.max-active} downloads are running. A slot is handed to the next
+ * download whenever a running one completes, fails, is paused or is cancelled.
+ * <p>
+ * The queue is the table itself, so it survives restarts: downloads that were running when
+ * the application stopped are checked against their files ({@link DownloadRecovery}) and put
+ * back in the queue on startup. Starts are spaced out to {@code download.queue.starts-per-second},
+ * so a restart or a batch with hundreds of downloads does not open all their connections at once.
+ * Explicit resume and retry requests start a download right away, outside the limit.
+ */
+@Component
+public class DownloadQueue {
+
+    @Autowired
+    private DownloadRepository downloadRepo;
+
+    @Autowired
+    private DownloadService downloadService;
+
+    @Autowired
+    private BandwidthGovernor governor;
+
+    @Autowired
+    private DownloadRecovery recovery;
+
+    @Value("${download.queue.max-active:3}")
+    private int maxActive;
+
+    // 0 or less starts every download there is a slot for at once
+    @Value("${download.queue.starts-per-second:2}")
+    private double startsPerSecond;
+
+    // Earliest time the next download may start, and whether one is waiting for it
+    private long nextStartNanos;
+    private boolean paced;
+
+    /** Put a newly created download at the back of its priority band and start it if there is room. */
+    public synchronized boolean enqueue(Download download) {
+        download.setQueuePosition(downloadRepo.maxQueuePosition() + 1);
+        downloadRepo.save(download);
+        return dispatch().contains(download.getId());
+    }
+
+    /** Queued downloads in the order they will be started. */
+    public List<Download> queued() {
+        return downloadRepo.findByStatusOrderByPriorityDescQueuePositionAscIdAsc(DownloadStatus.PENDING);
+    }
+
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    public synchronized void setPriority(Long downloadId, int priority) {
+        Download download = downloadService.getDownload(downloadId);
+        download.setPriority(priority);
+        downloadRepo.save(download);
+        if (download.getStatus() == DownloadStatus.DOWNLOADING) {
+            governor.register(downloadId, priority);
+        }
+    }
+
+    /**
+     * Move a queued download to {@code index} in the queue. Moving it past downloads of another
+     * priority gives it the priority of its new neighbour, since priority comes first in the order.
+     */
+    public synchronized void move(Long downloadId, int index) {
+        List<Download> queue = new ArrayList<>(queued());
+        Download download = queue.stream()
+                .filter(d -> d.getId().equals(downloadId))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Download is not queued"));
+        queue.remove(download);
+        index = Math.max(0, Math.min(index, queue.size()));
+        queue.add(index, download);
+        // Take the priority of the download now behind it, or in front of it when moved to the back
+        Download neighbour = index + 1 < queue.size() ? queue.get(index + 1)
+                : index > 0 ? queue.get(index - 1) : null;
+        if (neighbour != null) {
+            download.setPriority(neighbour.getPriority());
+        }
+        for (int i = 0; i < queue.size(); i++) {
+            queue.get(i).setQueuePosition(i + 1);
+        }
+        downloadRepo.saveAll(queue);
+    }
+
+    /**
+     * Start queued downloads until the active limit is reached, at the start rate; returns the
+     * ids started. Downloads held back by the rate are started by {@link #dispatchPaced}.
+     */
+    public synchronized List<Long> dispatch() {
+        List<Long> started = new ArrayList<>();
+        paced = false;
+        while (downloadRepo.countByStatus(DownloadStatus.DOWNLOADING) < maxActive) {
+            Download next = downloadRepo.findFirstByStatusOrderByPriorityDescQueuePositionAscIdAsc(DownloadStatus.PENDING);
+            if (next == null) {
+                break;
+            }
+            long now = System.nanoTime();
+            if (startsPerSecond > 0) {
+                if (now < nextStartNanos) {
+                    paced = true;
+                    break;
+                }
+                nextStartNanos = now + (long) (1e9 / startsPerSecond);
+            }
+            // Claim the slot before the asynchronous start so the next count sees it
+            downloadRepo.updateStatus(next.getId(), DownloadStatus.DOWNLOADING, LocalDateTime.now());
+            downloadService.startDownload(next.getId());
+            started.add(next.getId());
+        }
+        return started;
+    }
+
+    @Scheduled(fixedDelay = 100)
+    public synchronized void dispatchPaced() {
+        if (paced && System.nanoTime() >= nextStartNanos) {
+            dispatch();
+        }
+    }
+
+    @EventListener
+    public void onStatusChange(DownloadStatusEvent event) {
+        if (event.status() != DownloadStatus.DOWNLOADING) {
+            dispatch();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void reload() {
+        // Nothing is running yet, so rows still marked DOWNLOADING were cut off by the last shutdown;
+        // their offsets may be ahead of what reached the file
+        recovery.reconcileUnfinished();
+        downloadRepo.updateAllStatus(DownloadStatus.DOWNLOADING, DownloadStatus.PENDING);
+        // Transfers they were waiting on are forgotten with the restart; each fetches its own file
+        downloadRepo.updateAllStatus(DownloadStatus.WAITING, DownloadStatus.PENDING);
+        dispatch();
+    }
+}
@@ -0,0 +1,158 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.BlockBitmap;
+import com.kakarotabhi.idmclone.entity.Download;
+import com.kakarotabhi.idmclone.entity.SegmentInfo;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import com.kakarotabhi.idmclone.enums.SegmentStatus;
+import com.kakarotabhi.idmclone.repository.DownloadRepository;
+import com.kakarotabhi.idmclone.repository.SegmentInfoRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Startup check of the downloads the last run left unfinished. Saved offsets are checkpoints
+ * of what was handed to the OS; after a crash the file may hold less. Each offset is clamped
+ * to the file length, and zeros just before it are taken as a hole the data never reached
+ * (a preallocated file is sparse until written) and downloaded again. Completed segments were
+ * flushed to disk before they were marked so, and only lose their status when the file is
+ * shorter than they are.
+ * <p>
+ * The block index goes the other way: blocks it shows complete past a saved offset were
+ * written after the last checkpoint, and the offset moves forward over them. The index may
+ * reach the disk before some of the pages it describes, so the move stops at the first page
+ * of zeros in the range, however far back from its end.
+ */
+@Component
+public class DownloadRecovery {
+    // Unit in which written data can go missing from a file after a crash
+    private static final int PAGE = 4096;
+
+    @Autowired
+    private DownloadRepository downloadRepo;
+
+    @Autowired
+    private SegmentInfoRepository segmentRepo;
+
+    @Autowired
+    private DownloadFiles files;
+
+    // How far back from each offset the file is read to find bytes that never reached the disk
+    @Value("${download.recovery.check-bytes:1048576}")
+    private int checkBytes;
+
+    /** Reconcile every download that was running or paused; returns the bytes that will be fetched again. */
+    public long reconcileUnfinished() {
+        long rewound = 0;
+        for (DownloadStatus status : List.of(DownloadStatus.DOWNLOADING, DownloadStatus.PAUSED)) {
+            for (Download download : downloadRepo.findByStatusOrderByPriorityDescQueuePositionAscIdAsc(status)) {
+                rewound += reconcile(download);
+            }
+        }
+        return rewound;
+    }
+
+    /** Move the saved offsets of one download to what its file holds; returns the bytes rewound. */
+    public long reconcile(Download download) {
+        List<SegmentInfo> segments = segmentRepo.findByDownloadId(download.getId());
+        BlockBitmap blocks = files.existingBitmap(download);
+        if (blocks == null && segments.stream().allMatch(seg -> seg.getDownloadedBytes() == 0)) {
+            return 0;
+        }
+        Path path = Path.of(download.getFileName());
+        long rewound = 0;
+        try (FileChannel channel = Files.exists(path) ? FileChannel.open(path, StandardOpenOption.READ) : null) {
+            long length = channel != null ? channel.size() : 0;
+            ByteBuffer buffer = ByteBuffer.allocate(checkBytes);
+            for (SegmentInfo seg : segments) {
+                long saved = seg.getDownloadedBytes();
+                long frontier = Math.min(seg.getStartByte() + saved, length);
+                if (seg.getStatus() != SegmentStatus.COMPLETED) {
+                    if (frontier > seg.getStartByte()) {
+                        frontier = lastWritten(channel, buffer, seg.getStartByte(), frontier);
+                    }
+                    // Only an intact offset is moved forward, and the bytes it moves over are checked the same way
+                    long indexed = blocks != null && frontier == seg.getStartByte() + saved
+                            ? Math.min(Math.min(blocks.completeUpTo(frontier), seg.getEndByte() + 1), length)
+                            : frontier;
+                    if (indexed > frontier) {
+                        frontier = firstHole(channel, buffer, frontier, indexed);
+                    }
+                }
+                long downloaded = Math.max(0, frontier - seg.getStartByte());
+                if (downloaded != saved) {
+                    rewound += Math.max(0, saved - downloaded);
+                    seg.setDownloadedBytes(downloaded);
+                    if (seg.getStatus() == SegmentStatus.COMPLETED) {
+                        seg.setStatus(SegmentStatus.PENDING);
+                    } else if (seg.getStartByte() + downloaded > seg.getEndByte()) {
+                        seg.setStatus(SegmentStatus.COMPLETED);
+                    }
+                    segmentRepo.save(seg);
+                }
+            }
+        } catch (IOException e) {
+            // Unreadable file: keep the offsets; the transfer fails on it with a proper error
+        }
+        return rewound;
+    }
+
+    // End of the last non-zero byte in the window before {@code end}, not below {@code start}
+    private static long lastWritten(FileChannel channel, ByteBuffer buffer, long start, long end) throws IOException {
+        long from = Math.max(start, end - buffer.capacity());
+        buffer.clear();
+        buffer.limit((int) (end - from));
+        while (buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) >= 0) {
+            // keep reading until the window is full
+        }
+        for (int i = buffer.position() - 1; i >= 0; i--) {
+            if (buffer.get(i) != 0) {
+                return from + i + 1;
+            }
+        }
+        return from;
+    }
+
+    // Start of the first page in [start, end) that is all zeros, or end when every page holds data
+    private static long firstHole(FileChannel channel, ByteBuffer buffer, long start, long end) throws IOException {
+        long from = start;
+        while (from < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - from));
+            while (buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) >= 0) {
+                // keep reading until the window is full
+            }
+            int read = buffer.position();
+            if (read == 0) {
+                return from;
+            }
+            for (int page = 0; page < read; ) {
+                int pageEnd = (int) Math.min(read, ((from + page) / PAGE + 1) * PAGE - from);
+                if (isZero(buffer, page, pageEnd)) {
+                    return from + page;
+                }
+                page = pageEnd;
+            }
+            from += read;
+        }
+        return end;
+    }
+
+    private static boolean isZero(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
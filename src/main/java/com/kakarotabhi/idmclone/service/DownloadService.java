@@ -1,26 +1,47 @@
 package com.kakarotabhi.idmclone.service;
 
+import com.kakarotabhi.idmclone.downloader.BlockBitmap;
+import com.kakarotabhi.idmclone.downloader.BlockChecksums;
+import com.kakarotabhi.idmclone.downloader.Checksums;
+import com.kakarotabhi.idmclone.dto.DownloadSummary;
+import com.kakarotabhi.idmclone.downloader.DownloadFile;
+import com.kakarotabhi.idmclone.downloader.DownloadProgress;
+import com.kakarotabhi.idmclone.downloader.HttpStatusException;
+import com.kakarotabhi.idmclone.downloader.RemoteChangedException;
+import com.kakarotabhi.idmclone.downloader.SegmentProgress;
+import com.kakarotabhi.idmclone.downloader.ThrottledException;
+import com.kakarotabhi.idmclone.downloader.TransferBuffer;
 import com.kakarotabhi.idmclone.entity.Download;
 import com.kakarotabhi.idmclone.entity.SegmentInfo;
 import com.kakarotabhi.idmclone.enums.DownloadStatus;
 import com.kakarotabhi.idmclone.enums.SegmentStatus;
 import com.kakarotabhi.idmclone.repository.DownloadRepository;
 import com.kakarotabhi.idmclone.repository.SegmentInfoRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.observation.Observation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
@@ -33,11 +54,60 @@ public class DownloadService {
     @Autowired
     private SegmentInfoRepository segmentRepo;
 
+    @Autowired
+    private SegmentScheduler scheduler;
+
+    @Autowired
+    private AdaptiveConcurrency adaptive;
+
+    @Autowired
+    private DownloadFiles files;
+
+    @Autowired
+    private ProgressRegistry registry;
+
+    @Autowired
+    private ProgressCheckpointer checkpointer;
+
+    @Autowired
+    private BandwidthGovernor governor;
+
+    @Autowired
+    private HttpTransport http;
+
+    @Autowired
+    private RetryPolicy retries;
+
+    @Autowired
+    private IntegrityVerifier integrity;
+
+    @Autowired
+    private DownloadMetrics metrics;
+
+    @Autowired
+    private MirrorSet mirrors;
+
+    @Autowired
+    private PostProcessor postProcessor;
+
+    // Statuses a download can be retried from; a cancelled one has lost its file
+    private static final Set<DownloadStatus> RETRYABLE = Set.of(DownloadStatus.FAILED, DownloadStatus.PAUSED);
+
     // Map of downloadId -> pause flag
     private ConcurrentMap<Long, AtomicBoolean> pauseFlags = new ConcurrentHashMap<>();
 
     private final ConcurrentMap<Long, AtomicBoolean> cancelFlags = new ConcurrentHashMap<>();
 
+    // Downloads being restarted because the remote file changed
+    private final Set<Long> restarting = ConcurrentHashMap.newKeySet();
+
+    // Downloads whose finished file is being verified before they are marked complete
+    private final Set<Long> completing = ConcurrentHashMap.newKeySet();
+
+    // Smallest half a running segment is split into when a connection goes idle
+    @Value("${download.split.min-bytes:1048576}")
+    private long minSplitBytes;
+
     // Create and start a new download asynchronously
     @Async
     public void startDownload(Long downloadId) {
@@ -50,72 +120,634 @@ public class DownloadService {
         // Initialize pause flag
         pauseFlags.put(downloadId, new AtomicBoolean(false));
 
-        // Launch threads for each segment
-        List<SegmentInfo> segments = download.getSegments();
+        try {
+            files.preallocate(download.getFileName(), download.getTotalBytes());
+        } catch (IOException e) {
+            // segments still extend the file as they write
+        }
+
+        // Queue each unfinished segment on the scheduler
+        List<SegmentInfo> segments = segmentRepo.findByDownloadId(downloadId);
+        // Picked up again after a restart of the application: make sure the bytes on disk still fit
+        if (segments.stream().anyMatch(seg -> seg.getDownloadedBytes() > 0)) {
+            if (startsOver(download)) {
+                restartFromZero(download, segments);
+                return;
+            }
+            if (remoteChanged(download)) {
+                restartChanged(downloadId);
+                return;
+            }
+        }
+        registry.open(download, segments, DownloadStatus.DOWNLOADING);
+        manageConnections(download, segments);
         for (SegmentInfo seg : segments) {
             if (seg.getStatus() != SegmentStatus.COMPLETED) {
                 // Mark as DOWNLOADING and save
                 seg.setStatus(SegmentStatus.DOWNLOADING);
                 segmentRepo.save(seg);
 
-                // Launch a new thread for this segment
-                new Thread(() -> downloadSegment(download, seg)).start();
+                submitSegment(download, seg);
             }
         }
+        // Stopped between the last segment and the download being marked complete
+        checkAndCompleteDownload(download);
     }
 
-    // Download logic for one segment
-    private void downloadSegment(Download download, SegmentInfo seg) {
-        long start = seg.getStartByte() + seg.getDownloadedBytes();
-        long end = seg.getEndByte();
+    /**
+     * Cut a newly probed download into {@code count} ranges, fewer for small files, and store them.
+     * A streaming download gets one range, open-ended while its length is unknown.
+     */
+    public List<SegmentInfo> planSegments(Download download, int count) {
+        long totalBytes = download.getTotalBytes();
+        if (download.isStreaming()) {
+            SegmentInfo seg = new SegmentInfo();
+            seg.setSegmentIndex(0);
+            seg.setStartByte(0);
+            seg.setEndByte(totalBytes >= 0 ? totalBytes - 1 : SegmentProgress.OPEN_END);
+            seg.setDownloadedBytes(0);
+            seg.setStatus(SegmentStatus.PENDING);
+            seg.setDownload(download);
+            return List.of(segmentRepo.save(seg));
+        }
+        // Small files are not worth cutting into ranges below the split size
+        count = (int) Math.max(1, Math.min(count, totalBytes / minSplitBytes));
+        // Ranges start on block boundaries, so each block belongs to one segment
+        int blockSize = files.getBlockSize();
+        long segmentSize = totalBytes / count;
+        if (segmentSize >= blockSize) {
+            segmentSize -= segmentSize % blockSize;
+        }
+        List<SegmentInfo> segments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long start = i * segmentSize;
+            long end = (i == count - 1) ? totalBytes - 1 : (start + segmentSize - 1);
+
+            SegmentInfo seg = new SegmentInfo();
+            seg.setSegmentIndex(i);
+            seg.setStartByte(start);
+            seg.setEndByte(end);
+            seg.setDownloadedBytes(0);
+            seg.setStatus(SegmentStatus.PENDING);
+            seg.setDownload(download);
+            segments.add(seg);
+        }
+        return segmentRepo.saveAll(segments);
+    }
+
+    private void submitSegment(Download download, SegmentInfo seg) {
+        registry.segment(download.getId(), seg).setStatus(SegmentStatus.DOWNLOADING);
+        String source = download.isStreaming() ? download.getUrl() : mirrors.acquire(download);
+        scheduler.submit(download.getId(), source, () -> downloadSegment(download, seg, false, source));
+    }
+
+    /**
+     * Open a second connection for the rest of a stalled segment; whichever connection gets
+     * ahead keeps the range. Returns false when the download has no connection to spare.
+     */
+    public boolean hedge(Long downloadId, SegmentProgress progress) {
+        if (progress.getRemainingBytes() < minSplitBytes
+                || scheduler.getActiveCount(downloadId) >= scheduler.getDownloadLimit(downloadId)) {
+            return false;
+        }
+        Download download = downloadRepo.findById(downloadId).orElse(null);
+        SegmentInfo seg = segmentRepo.findById(progress.getSegmentId()).orElse(null);
+        if (download == null || seg == null || download.getStatus() != DownloadStatus.DOWNLOADING
+                || download.isStreaming()) {
+            return false;
+        }
+        String source = mirrors.acquire(download);
+        scheduler.submit(downloadId, source, () -> downloadSegment(download, seg, true, source));
+        return true;
+    }
+
+    private void downloadSegment(Download download, SegmentInfo seg, boolean hedge, String source) {
+        String host = SegmentScheduler.hostOf(source);
+        metrics.segment(download.getId(), seg.getSegmentIndex(), host, hedge).observe(() -> {
+            if (download.isStreaming()) {
+                transferStream(download, seg);
+            } else {
+                transferSegment(download, seg, hedge, source);
+            }
+        });
+    }
+
+    /**
+     * Download logic for a streaming download: the whole response over one connection, for
+     * servers without ranges or a known length. A dropped connection continues from the last
+     * byte written when the server accepts ranges; otherwise only while nothing was written.
+     */
+    private void transferStream(Download download, SegmentInfo seg) {
         String url = download.getUrl();
-        String fileName = download.getFileName();
+        String host = SegmentScheduler.hostOf(url);
+        Counter bytesWritten = metrics.bytes(host);
         AtomicBoolean pauseFlag = pauseFlags.get(download.getId());
         AtomicBoolean cancelFlag = cancelFlags.get(download.getId());
+        SegmentProgress progress = registry.segment(download.getId(), seg);
+        progress.setStatus(SegmentStatus.DOWNLOADING);
+        DownloadProgress counter = registry.get(download.getId());
+
+        TransferBuffer buffer = files.getBufferPool().acquire();
+        DownloadFile output = null;
+        BlockBitmap blocks = files.bitmap(download);
+        SegmentProgress.Writer writer = null;
+        int failures = 0;
 
-        try (RandomAccessFile output = new RandomAccessFile(fileName, "rw")) {
-            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
-            connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
-            connection.connect();
-            // Optional: check response code is 206
-            try (InputStream input = connection.getInputStream()) {
-                output.seek(start);
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                long totalRead = seg.getDownloadedBytes();
-
-                while ((bytesRead = input.read(buffer)) != -1) {
-                    // Check for pause
-                    if (pauseFlag.get() || download.getStatus() == DownloadStatus.PAUSED) {
-                        seg.setStatus(SegmentStatus.PAUSED);
-                        seg.setDownloadedBytes(totalRead);
-                        segmentRepo.save(seg);
-                        return; // exit thread gracefully
+        try {
+            output = files.acquire(download.getId(), download.getFileName());
+            while (true) {
+                long cursor = progress.getFrontier();
+                writer = progress.attach(cursor, false);
+                try {
+                    retries.awaitHost(host);
+                    HttpResponse<InputStream> response = http.getStream(download.getId(), url, cursor);
+                    retries.onSuccess(host);
+                    Observation transfer = metrics.transfer(host);
+                    try (InputStream input = response.body()) {
+                        int bytesRead;
+                        while ((bytesRead = buffer.fill(input)) != -1) {
+                            if (pauseFlag.get() || (cancelFlag != null && cancelFlag.get())) {
+                                progress.detach(writer);
+                                seg.setStatus(pauseFlag.get() ? SegmentStatus.PAUSED : SegmentStatus.FAILED);
+                                saveProgress(seg, progress);
+                                return;
+                            }
+                            governor.acquire(download.getId(), host, bytesRead);
+                            if (progress.reserve(cursor, bytesRead) < bytesRead) {
+                                throw new IOException("Server sent more than the " + download.getTotalBytes() + " bytes it announced");
+                            }
+                            output.write(buffer.buffer(), cursor);
+                            cursor += bytesRead;
+                            long delta = progress.advance(writer, cursor, 0);
+                            if (blocks != null) {
+                                blocks.written(0, cursor - bytesRead, cursor);
+                            }
+                            if (counter != null) {
+                                counter.addDownloadedBytes(delta);
+                            }
+                            bytesWritten.increment(bytesRead);
+                        }
+                    } catch (IOException e) {
+                        transfer.error(e);
+                        throw e;
+                    } finally {
+                        transfer.stop();
+                    }
+                    if (download.getTotalBytes() < 0) {
+                        // The end of the stream is the end of the file
+                        progress.endAt(cursor - 1);
+                        download.setTotalBytes(cursor);
+                        downloadRepo.updateTotalBytes(download.getId(), cursor);
+                        if (counter != null) {
+                            counter.setTotalBytes(cursor);
+                        }
+                        // Only a checksum to check is worth a pass over the file now; without one it stays uncached
+                        if (download.getExpectedChecksum() != null) {
+                            integrity.open(download);
+                        }
+                    } else if (!progress.isComplete()) {
+                        throw new IOException("Connection closed at byte " + cursor
+                                + ", file ends at " + progress.getEndByte());
+                    }
+                    break;
+                } catch (IOException e) {
+                    progress.detach(writer);
+                    boolean stopping = Thread.currentThread().isInterrupted() || pauseFlag.get()
+                            || (cancelFlag != null && cancelFlag.get());
+                    if (stopping) {
+                        throw e;
+                    }
+                    boolean resumable = download.isAcceptsRanges() || progress.getFrontier() == 0;
+                    boolean retryable = writer.isStalled() || retries.isRetryable(e);
+                    if (!writer.isStalled()) {
+                        if (retries.isRetryable(e)) {
+                            retries.onFailure(host);
+                        } else if (e instanceof HttpStatusException || e instanceof RemoteChangedException) {
+                            retries.onSuccess(host);
+                        }
                     }
+                    if (!resumable || !retryable || ++failures > retries.getMaxAttempts()) {
+                        throw e;
+                    }
+                    if (counter != null) {
+                        counter.recordRetry();
+                    }
+                    metrics.retry(host, writer.isStalled() ? "stalled" : DownloadMetrics.cause(e));
+                    if (!writer.isStalled()) {
+                        retries.backoff(host, failures);
+                    }
+                }
+            }
+            progress.detach(writer);
+            metrics.fsync(host, output);
+            forceBlocks(download);
+            seg.setStatus(SegmentStatus.COMPLETED);
+            saveProgress(seg, progress);
+            checkAndCompleteDownload(download);
+        } catch (Exception e) {
+            Thread.interrupted();
+            if (e instanceof RemoteChangedException) {
+                Thread.startVirtualThread(() -> restartChanged(download.getId()));
+                return;
+            }
+            if (pauseFlag != null && pauseFlag.get() && (cancelFlag == null || !cancelFlag.get())) {
+                seg.setStatus(SegmentStatus.PAUSED);
+            } else {
+                seg.setStatus(SegmentStatus.FAILED);
+            }
+            saveProgress(seg, progress);
+            if (seg.getStatus() == SegmentStatus.FAILED) {
+                if (cancelFlag == null || !cancelFlag.get()) {
+                    metrics.failure(host, e);
+                }
+                checkAndFailDownload(download);
+            }
+        } finally {
+            if (writer != null) {
+                progress.detach(writer);
+            }
+            files.getBufferPool().release(buffer);
+            if (output != null) {
+                files.release(download.getId(), output);
+            }
+        }
+    }
 
-                    if (cancelFlag != null && cancelFlag.get()) {
-                        // mark segment as CANCELLED
-                        seg.setStatus(SegmentStatus.FAILED);
-                        segmentRepo.save(seg);
-                        return;
+    // Download logic for one segment from one of the download's sources; a hedge races the
+    // connection already on it and leaves the segment's status to that one unless it wins
+    private void transferSegment(Download download, SegmentInfo seg, boolean hedge, String source) {
+        String url = source;
+        String fileName = download.getFileName();
+        String host = SegmentScheduler.hostOf(url);
+        Counter bytesWritten = metrics.bytes(host);
+        long sourceBytes = 0; // moved from the current source, and time spent transferring
+        long sourceNanos = 0;
+        AtomicBoolean pauseFlag = pauseFlags.get(download.getId());
+        AtomicBoolean cancelFlag = cancelFlags.get(download.getId());
+        SegmentProgress progress = registry.segment(download.getId(), seg);
+        if (!hedge) {
+            progress.setStatus(SegmentStatus.DOWNLOADING);
+        }
+        DownloadProgress counter = registry.get(download.getId());
+
+        TransferBuffer buffer = files.getBufferPool().acquire();
+        DownloadFile output = null;
+        BlockBitmap blocks = files.bitmap(download);
+
+        int failures = 0;   // attempts in a row that failed without moving the frontier
+        long lostSince = 0; // when the last byte arrived before an error, until transfer resumes
+        // A racing writer this far behind the other one is dropped
+        long maxLag = 2L * files.getBufferPool().getBufferSize();
+        SegmentProgress.Writer writer = null;
+
+        try {
+            output = files.acquire(download.getId(), fileName);
+            while (!progress.isComplete()) {
+                // Every attempt continues from the exact byte already written
+                long cursor = progress.getFrontier();
+                long attemptStart = cursor;
+                long lastByteNanos = System.nanoTime();
+                writer = progress.attach(cursor, hedge);
+                BlockChecksums.Tracker checksums = integrity.tracker(download.getId());
+                try {
+                    long waited = retries.awaitHost(host);
+                    if (waited > 0 && lostSince == 0) {
+                        lostSince = System.nanoTime() - waited;
                     }
+                    HttpResponse<InputStream> response = http.getRange(download.getId(), url, cursor, progress.getEndByte());
+                    retries.onSuccess(host);
+                    long served = HttpTransport.totalLength(response.headers());
+                    if (served >= 0 && served != download.getTotalBytes()) {
+                        response.body().close();
+                        throw new RemoteChangedException(url + " serves " + served + " bytes, expected " + download.getTotalBytes());
+                    }
+                    if (lostSince != 0) {
+                        recordLost(counter, host, System.nanoTime() - lostSince);
+                        lostSince = 0;
+                    }
+                    long responseNanos = System.nanoTime();
+                    Observation transfer = metrics.transfer(host);
+                    try (InputStream input = response.body()) {
+                        int bytesRead;
+
+                        while ((bytesRead = buffer.fill(input)) != -1) {
+                            lastByteNanos = System.nanoTime();
+                            // Check for pause
+                            if (pauseFlag.get() || download.getStatus() == DownloadStatus.PAUSED) {
+                                progress.detach(writer);
+                                seg.setStatus(SegmentStatus.PAUSED);
+                                saveProgress(seg, progress);
+                                return; // exit thread gracefully
+                            }
 
-                    output.write(buffer, 0, bytesRead);
-                    totalRead += bytesRead;
+                            if (cancelFlag != null && cancelFlag.get()) {
+                                // mark segment as CANCELLED
+                                progress.detach(writer);
+                                seg.setStatus(SegmentStatus.FAILED);
+                                saveProgress(seg, progress);
+                                return;
+                            }
+
+                            // Wait for the bandwidth limits before passing the bytes on
+                            governor.acquire(download.getId(), host, bytesRead);
+
+                            // The range may have been split while we were reading
+                            int allowed = progress.reserve(cursor, bytesRead);
+                            if (allowed > 0) {
+                                ByteBuffer chunk = buffer.buffer();
+                                chunk.limit(allowed);
+                                if (checksums != null) {
+                                    checksums.update(chunk, cursor);
+                                }
+                                output.write(chunk, cursor);
+                                cursor += allowed;
+                                sourceBytes += allowed;
+                                long delta = progress.advance(writer, cursor, maxLag);
+                                if (blocks != null) {
+                                    blocks.written(progress.getStartByte(), cursor - allowed, cursor);
+                                }
+                                if (counter != null) {
+                                    counter.addDownloadedBytes(delta);
+                                }
+                                bytesWritten.increment(allowed);
+                            }
+                            if (allowed < bytesRead) {
+                                break; // the rest belongs to another segment now
+                            }
+                        }
+                        if (!progress.isComplete()) {
+                            throw new IOException("Connection closed at byte " + cursor
+                                    + ", segment ends at " + progress.getEndByte());
+                        }
+                    } catch (IOException e) {
+                        transfer.error(e);
+                        throw e;
+                    } finally {
+                        transfer.stop();
+                        sourceNanos += System.nanoTime() - responseNanos;
+                    }
+                } catch (IOException e) {
+                    progress.detach(writer);
+                    if (writer.isSuperseded()) {
+                        return; // the other connection on this range got ahead
+                    }
+                    boolean stopping = Thread.currentThread().isInterrupted() || pauseFlag.get()
+                            || (cancelFlag != null && cancelFlag.get());
+                    // Adaptive downloads answer throttling by dropping the connection instead
+                    boolean handedBack = e instanceof ThrottledException && adaptive.isManaged(download.getId());
+                    if (stopping) {
+                        throw e;
+                    }
+                    if (progress.getFrontier() > attemptStart) {
+                        failures = 0;
+                    }
+                    if (writer.isStalled()) {
+                        // The watchdog gave up on this connection; reconnect without backing off
+                        if (++failures > retries.getMaxAttempts()) {
+                            throw e;
+                        }
+                        if (lostSince == 0) {
+                            lostSince = writer.getLastProgressNanos();
+                        }
+                        if (counter != null) {
+                            counter.recordRetry();
+                        }
+                        metrics.retry(host, "stalled");
+                        continue;
+                    }
+                    boolean retryable = retries.isRetryable(e);
+                    if (retryable) {
+                        retries.onFailure(host);
+                    } else if (e instanceof HttpStatusException || e instanceof RemoteChangedException) {
+                        retries.onSuccess(host); // the host is up, the resource is the problem
+                    }
+                    if (!url.equals(download.getUrl()) && mirrors.fail(download.getId(), url, e)) {
+                        // The mirror is out; the range carries on from another source without counting a failure
+                        mirrors.release(download.getId(), url, sourceBytes, sourceNanos);
+                        sourceBytes = 0;
+                        sourceNanos = 0;
+                        url = mirrors.acquire(download);
+                        host = SegmentScheduler.hostOf(url);
+                        bytesWritten = metrics.bytes(host);
+                        continue;
+                    }
+                    if (handedBack || !retryable || ++failures > retries.getMaxAttempts()) {
+                        throw e;
+                    }
+                    if (lostSince == 0) {
+                        lostSince = lastByteNanos;
+                    }
+                    if (counter != null) {
+                        counter.recordRetry();
+                    }
+                    metrics.retry(host, DownloadMetrics.cause(e));
+                    retries.backoff(host, failures);
                 }
-                // Segment completed
-                seg.setDownloadedBytes(totalRead);
-                seg.setStatus(SegmentStatus.COMPLETED);
-                segmentRepo.save(seg);
+            }
+            if (writer != null) {
+                progress.detach(writer);
+                progress.supersedeOthers(writer);
+            }
+            // Segment completed; its bytes reach the disk before the database says so
+            metrics.fsync(host, output);
+            forceBlocks(download);
+            seg.setStatus(SegmentStatus.COMPLETED);
+            saveProgress(seg, progress);
+
+            // Keep this connection busy with the tail of a slower segment
+            stealWork(download);
 
-                // After segment, check if all segments done
-                checkAndCompleteDownload(download);
+            // After segment, check if all segments done
+            checkAndCompleteDownload(download);
+        } catch (ThrottledException e) {
+            if (hedge || (writer != null && progress.hasOtherWriters(writer))) {
+                return;
+            }
+            if (!adaptive.isManaged(download.getId())) {
+                metrics.failure(host, e);
+                seg.setStatus(SegmentStatus.FAILED);
+                saveProgress(seg, progress);
+                checkAndFailDownload(download);
+                return;
+            } else {
+                // Give the connection back; adjustConnections() requeues the segment when there is room
+                adaptive.onThrottled(download.getId());
+                seg.setStatus(SegmentStatus.PENDING);
             }
+            saveProgress(seg, progress);
         } catch (Exception e) {
-            // On error, mark this segment as FAILED
-            seg.setStatus(SegmentStatus.FAILED);
-            segmentRepo.save(seg);
+            if (lostSince != 0) {
+                recordLost(counter, host, System.nanoTime() - lostSince);
+            }
+            // Interrupted by pause/cancel through the scheduler, or a real error.
+            // Clear the interrupt so the repository call below is not aborted too.
+            Thread.interrupted();
+            if (e instanceof RemoteChangedException) {
+                // Everything written so far belongs to the old version; restart outside the
+                // scheduler, which is about to interrupt this download's workers
+                Thread.startVirtualThread(() -> restartChanged(download.getId()));
+                return;
+            }
+            if (hedge || (writer != null && progress.hasOtherWriters(writer))) {
+                return; // the other connection on this range decides its status
+            }
+            if (pauseFlag != null && pauseFlag.get() && (cancelFlag == null || !cancelFlag.get())) {
+                seg.setStatus(SegmentStatus.PAUSED);
+            } else {
+                // On error, mark this segment as FAILED
+                seg.setStatus(SegmentStatus.FAILED);
+            }
+            saveProgress(seg, progress);
+            if (seg.getStatus() == SegmentStatus.FAILED) {
+                if (cancelFlag == null || !cancelFlag.get()) {
+                    metrics.failure(host, e);
+                }
+                checkAndFailDownload(download);
+            }
+        } finally {
+            mirrors.release(download.getId(), url, sourceBytes, sourceNanos);
+            if (writer != null) {
+                progress.detach(writer);
+            }
+            files.getBufferPool().release(buffer);
+            if (output != null) {
+                files.release(download.getId(), output);
+            }
+        }
+    }
+
+    // Mark the blocks split between segments that are now written on both sides, and flush the
+    // index after the data it describes
+    private void forceBlocks(Download download) {
+        BlockBitmap blocks = files.bitmap(download);
+        if (blocks != null) {
+            blocks.markAll(registry.segments(download.getId()).stream()
+                    .map(p -> new long[] {p.getStartByte(), p.getFrontier()})
+                    .toList());
+            blocks.force();
+        }
+    }
+
+    private void recordLost(DownloadProgress counter, String host, long nanos) {
+        retries.addLostNanos(host, nanos);
+        if (counter != null) {
+            counter.addLostNanos(nanos);
+        }
+    }
+
+    // Copy the live range and offset onto the entity before it is written back
+    private void saveProgress(SegmentInfo seg, SegmentProgress progress) {
+        progress.setStatus(seg.getStatus());
+        seg.setEndByte(progress.getEndByte());
+        seg.setDownloadedBytes(progress.getDownloadedBytes());
+        segmentRepo.save(seg);
+    }
+
+    /**
+     * Split the largest remaining range of a still-running segment in half and queue
+     * the back half as a new segment, so the download does not wait on its slowest connection.
+     */
+    private synchronized void stealWork(Download download) {
+        AtomicBoolean pauseFlag = pauseFlags.get(download.getId());
+        AtomicBoolean cancelFlag = cancelFlags.get(download.getId());
+        if ((pauseFlag != null && pauseFlag.get()) || (cancelFlag != null && cancelFlag.get())) {
+            return;
+        }
+        SegmentProgress victim = registry.segments(download.getId()).stream()
+                .filter(p -> p.getStatus() == SegmentStatus.DOWNLOADING)
+                .max(Comparator.comparingLong(SegmentProgress::getRemainingBytes))
+                .orElse(null);
+        if (victim == null) {
+            return;
+        }
+        long[] stolen = victim.split(minSplitBytes, files.getBlockSize());
+        if (stolen == null) {
+            return;
+        }
+        // Persist the shortened range first so a resume never downloads the stolen half twice
+        segmentRepo.updateEndByte(victim.getSegmentId(), victim.getEndByte());
+
+        int nextIndex = segmentRepo.findByDownloadId(download.getId()).stream()
+                .mapToInt(SegmentInfo::getSegmentIndex)
+                .max().orElse(-1) + 1;
+        SegmentInfo seg = new SegmentInfo();
+        seg.setSegmentIndex(nextIndex);
+        seg.setStartByte(stolen[0]);
+        seg.setEndByte(stolen[1]);
+        seg.setDownloadedBytes(0);
+        seg.setStatus(SegmentStatus.DOWNLOADING);
+        seg.setDownload(download);
+        segmentRepo.save(seg);
+        submitSegment(download, seg);
+    }
+
+    // Give the download its bandwidth share, checksum follower and post-processing and, when
+    // adaptive, cap its connections at the current target
+    private void manageConnections(Download download, List<SegmentInfo> segments) {
+        http.expect(download.getId(), download.getUrl(), new HttpTransport.Validators(download.getEtag(), download.getLastModified()));
+        mirrors.register(download);
+        governor.register(download.getId(), download.getPriority());
+        integrity.open(download);
+        postProcessor.open(download);
+        if (!download.isAdaptive()) {
+            return;
+        }
+        if (!adaptive.isManaged(download.getId())) {
+            int unfinished = (int) segments.stream()
+                    .filter(seg -> seg.getStatus() != SegmentStatus.COMPLETED)
+                    .count();
+            adaptive.register(download.getId(), download.getUrl(), unfinished);
+        } else {
+            // Resumed: the time it spent stopped is not throughput
+            adaptive.resetBaseline(download.getId());
+        }
+        scheduler.setDownloadLimit(download.getId(), adaptive.getTarget(download.getId()));
+    }
+
+    /**
+     * Sample the throughput of adaptive downloads and add or remove connections accordingly.
+     * A new connection picks up a segment that was throttled earlier, or the back half of
+     * the largest running segment.
+     */
+    @Scheduled(fixedDelayString = "${download.adaptive.interval-ms:3000}")
+    public void adjustConnections() {
+        for (DownloadProgress progress : registry.all()) {
+            Long downloadId = progress.getDownloadId();
+            // A paused download moves no bytes; sampling it would shrink its count for nothing
+            if (progress.getStatus() != DownloadStatus.DOWNLOADING || !adaptive.isManaged(downloadId)) {
+                continue;
+            }
+            int target = adaptive.evaluate(downloadId, progress.getDownloadedBytes());
+            scheduler.setDownloadLimit(downloadId, target);
+            if (scheduler.getActiveCount(downloadId) < target) {
+                downloadRepo.findById(downloadId)
+                        .filter(d -> d.getStatus() == DownloadStatus.DOWNLOADING)
+                        .ifPresent(this::addConnection);
+            }
+        }
+    }
+
+    private void addConnection(Download download) {
+        for (SegmentInfo seg : segmentRepo.findByDownloadId(download.getId())) {
+            if (seg.getStatus() == SegmentStatus.PENDING) {
+                seg.setStatus(SegmentStatus.DOWNLOADING);
+                segmentRepo.save(seg);
+                submitSegment(download, seg);
+                return;
+            }
         }
+        stealWork(download);
+    }
+
+    // Drop the per-download engine state once a download stops for good
+    private void release(Long downloadId) {
+        adaptive.unregister(downloadId);
+        scheduler.clearDownloadLimit(downloadId);
+        governor.unregister(downloadId);
+        http.forget(downloadId);
+        mirrors.forget(downloadId);
+        integrity.forget(downloadId);
+        postProcessor.abort(downloadId);
     }
 
     // Pause a download: set flag and update statuses
@@ -124,12 +756,14 @@ public class DownloadService {
             .orElseThrow(() -> new IllegalArgumentException("Invalid download ID"));
         download.setStatus(DownloadStatus.PAUSED);
         downloadRepo.save(download);
+        registry.setStatus(downloadId, DownloadStatus.PAUSED);
 
         AtomicBoolean flag = pauseFlags.get(downloadId);
         if (flag != null) {
             flag.set(true);
         }
-        // Threads will detect flag and exit
+        // Queued segments never start; in-flight ones are interrupted and save their offset
+        scheduler.cancel(downloadId);
     }
 
     // Resume a paused download: clear flag and restart incomplete segments
@@ -149,67 +783,341 @@ public class DownloadService {
         } else {
             pauseFlags.put(downloadId, new AtomicBoolean(false));
         }
-        // Relaunch threads for segments that are not completed
+        // A file that changed while paused cannot be resumed, nor a stream without ranges
+        if (startsOver(download)) {
+            restartFromZero(download, segmentRepo.findByDownloadId(downloadId));
+            return;
+        }
+        if (remoteChanged(download)) {
+            restartChanged(downloadId);
+            return;
+        }
+        // Requeue segments that are not completed
         List<SegmentInfo> segments = segmentRepo.findByDownloadId(downloadId);
+        registry.open(download, segments, DownloadStatus.DOWNLOADING);
+        manageConnections(download, segments);
         for (SegmentInfo seg : segments) {
             if (seg.getStatus() != SegmentStatus.COMPLETED) {
                 seg.setStatus(SegmentStatus.DOWNLOADING);
                 segmentRepo.save(seg);
-                new Thread(() -> downloadSegment(download, seg)).start();
+                submitSegment(download, seg);
             }
         }
+        // Paused after the last segment finished: nothing left to run
+        checkAndCompleteDownload(download);
     }
 
-    // Retry download: by default retry failed segments; if full=true, reset all segments
+    // Retry download: by default retry failed segments; if full=true, fetch again everything
+    // the block index does not show on disk, or the whole file without one
     @Async
     public void retryDownload(Long downloadId, boolean fullRestart) {
-        Download download = downloadRepo.findById(downloadId)
-            .orElseThrow(() -> new IllegalArgumentException("Invalid download ID"));
-        download.setStatus(DownloadStatus.DOWNLOADING);
-        downloadRepo.save(download);
+        Download download;
+        // Only a download that has stopped is retried; read and claimed under the lock so two
+        // retries never start workers for it side by side
+        synchronized (this) {
+            download = downloadRepo.findById(downloadId)
+                .orElseThrow(() -> new IllegalArgumentException("Invalid download ID"));
+            if (!RETRYABLE.contains(download.getStatus())) {
+                throw new IllegalStateException("Download is " + download.getStatus() + ", not stopped");
+            }
+            download.setStatus(DownloadStatus.DOWNLOADING);
+            downloadRepo.save(download);
+        }
+        // A retried download may have been paused before; its workers must not stop at once
+        pauseFlags.put(downloadId, new AtomicBoolean(false));
 
         // Prepare for restart
-        if (fullRestart) {
-            // Reset file and segment offsets
-            // Truncate the file to 0 length
-            try (RandomAccessFile output = new RandomAccessFile(download.getFileName(), "rw")) {
-                output.setLength(0);
-            } catch (IOException e) {
-                // handle error
-            }
-            // Reset all segments to start and pending
-            List<SegmentInfo> segments = segmentRepo.findByDownloadId(downloadId);
-            for (SegmentInfo seg : segments) {
-                seg.setDownloadedBytes(0);
-                seg.setStatus(SegmentStatus.DOWNLOADING);
-                segmentRepo.save(seg);
-                new Thread(() -> downloadSegment(download, seg)).start();
-            }
+        if (startsOver(download)) {
+            restartFromZero(download, segmentRepo.findByDownloadId(downloadId));
+        } else if (remoteChanged(download)) {
+            restartChanged(downloadId);
+        } else if (fullRestart) {
+            refetchMissing(download);
         } else {
             // Retry only failed or paused segments
             List<SegmentInfo> segments = segmentRepo.findByDownloadId(downloadId);
+            registry.open(download, segments, DownloadStatus.DOWNLOADING);
+            manageConnections(download, segments);
             for (SegmentInfo seg : segments) {
                 if (seg.getStatus() == SegmentStatus.FAILED || seg.getStatus() == SegmentStatus.PAUSED) {
                     seg.setStatus(SegmentStatus.DOWNLOADING);
                     segmentRepo.save(seg);
-                    new Thread(() -> downloadSegment(download, seg)).start();
+                    submitSegment(download, seg);
                 }
             }
         }
     }
 
-    // Check if all segments are completed; if so, mark download complete
-    private synchronized void checkAndCompleteDownload(Download download) {
-        List<SegmentInfo> segments = segmentRepo.findByDownloadId(download.getId());
-        boolean allDone = segments.stream()
-                            .allMatch(seg -> seg.getStatus() == SegmentStatus.COMPLETED);
-        if (allDone) {
-            download.setStatus(DownloadStatus.COMPLETED);
+    /**
+     * Replace the segments with one per run of blocks the index shows missing (and completed
+     * ones for the rest), keeping the bytes already on disk. Only bytes known to come from the
+     * current version are kept: without a validator to check that, or without an index, the
+     * whole file is fetched again.
+     */
+    private void refetchMissing(Download download) {
+        Long downloadId = download.getId();
+        BlockBitmap blocks = files.existingBitmap(download);
+        List<SegmentInfo> segments = segmentRepo.findByDownloadId(downloadId);
+        boolean validated = new HttpTransport.Validators(download.getEtag(), download.getLastModified()).ifRange() != null;
+        if (blocks == null || !validated || download.isStreaming() || !new File(download.getFileName()).exists()) {
+            restartFromZero(download, segments);
+            return;
+        }
+        scheduler.cancel(downloadId);
+        // Workers of the last run must be gone before the segments they save are replaced
+        awaitStopped(downloadId);
+        checkpointer.forget(downloadId);
+        integrity.forget(downloadId);
+        registry.remove(downloadId);
+        blocks.markAll(segments.stream()
+                .map(seg -> new long[] {seg.getStartByte(), seg.getStartByte() + seg.getDownloadedBytes()})
+                .toList());
+        segmentRepo.deleteAll(segments);
+
+        List<SegmentInfo> planned = new ArrayList<>();
+        long next = 0;
+        for (long[] run : blocks.missing()) {
+            if (run[0] > next) {
+                planned.add(newSegment(download, planned.size(), next, run[0] - 1, SegmentStatus.COMPLETED));
+            }
+            planned.add(newSegment(download, planned.size(), run[0], run[1], SegmentStatus.DOWNLOADING));
+            next = run[1] + 1;
+        }
+        if (next < download.getTotalBytes()) {
+            planned.add(newSegment(download, planned.size(), next, download.getTotalBytes() - 1, SegmentStatus.COMPLETED));
+        }
+        planned = segmentRepo.saveAll(planned);
+        registry.open(download, planned, DownloadStatus.DOWNLOADING);
+        manageConnections(download, planned);
+        for (SegmentInfo seg : planned) {
+            if (seg.getStatus() != SegmentStatus.COMPLETED) {
+                submitSegment(download, seg);
+            }
+        }
+        checkAndCompleteDownload(download);
+    }
+
+    private static SegmentInfo newSegment(Download download, int index, long start, long end, SegmentStatus status) {
+        SegmentInfo seg = new SegmentInfo();
+        seg.setSegmentIndex(index);
+        seg.setStartByte(start);
+        seg.setEndByte(end);
+        seg.setDownloadedBytes(status == SegmentStatus.COMPLETED ? end - start + 1 : 0);
+        seg.setStatus(status);
+        seg.setDownload(download);
+        return seg;
+    }
+
+    // Truncate the file and run every segment again from its start
+    private void restartFromZero(Download download, List<SegmentInfo> segments) {
+        Long downloadId = download.getId();
+        // Stop anything still transferring before the offsets are reset
+        scheduler.cancel(downloadId);
+        checkpointer.forget(downloadId);
+        integrity.forget(downloadId);
+        postProcessor.abort(downloadId);
+        // Live offsets of the old attempt must not carry over
+        registry.remove(downloadId);
+        BlockBitmap blocks = files.bitmap(download);
+        if (blocks != null) {
+            blocks.clear();
+        }
+        // Reset file and segment offsets
+        // Truncate the file to 0 length; the writers reopen it
+        files.close(downloadId);
+        try (RandomAccessFile output = new RandomAccessFile(download.getFileName(), "rw")) {
+            output.setLength(0);
+        } catch (IOException e) {
+            // Writing from zero over the old bytes would pass them off as the new version
+            markFailed(download);
+            return;
+        }
+        try {
+            files.preallocate(download.getFileName(), download.getTotalBytes());
+        } catch (IOException e) {
+            // segments still extend the file as they write
+        }
+        // Reset all segments to start and pending
+        for (SegmentInfo seg : segments) {
+            seg.setDownloadedBytes(0);
+            seg.setStatus(SegmentStatus.DOWNLOADING);
+            segmentRepo.save(seg);
+        }
+        registry.open(download, segments, DownloadStatus.DOWNLOADING);
+        manageConnections(download, segments);
+        for (SegmentInfo seg : segments) {
+            submitSegment(download, seg);
+        }
+    }
+
+    // A stream from a server without ranges can only be read again from its first byte
+    private boolean startsOver(Download download) {
+        return download.isStreaming() && !download.isAcceptsRanges();
+    }
+
+    // HEAD the URL and compare its validators with the stored ones; a failed probe is left to If-Range
+    private boolean remoteChanged(Download download) {
+        HttpTransport.Validators expected = new HttpTransport.Validators(download.getEtag(), download.getLastModified());
+        if (expected.ifRange() == null) {
+            return false;
+        }
+        try {
+            return expected.changedIn(http.head(download.getUrl()).headers());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The remote file changed under a download: probe it again and download the new version
+     * from the start, with new segments when its size changed as well.
+     */
+    private void restartChanged(Long downloadId) {
+        if (!restarting.add(downloadId)) {
+            return; // another segment noticed first
+        }
+        try {
+            Download download = getDownload(downloadId);
+            scheduler.cancel(downloadId);
+            awaitStopped(downloadId);
+            http.forget(downloadId);
+            HttpTransport.Probe probe = http.probe(download.getUrl());
+            HttpTransport.Validators validators = HttpTransport.Validators.of(probe.headers());
+            download.setEtag(validators.etag());
+            download.setLastModified(validators.lastModified());
+            // A digest header describes the new version; one given by the user is kept
+            Checksums.fromHeaders(probe.headers()).ifPresent(expected -> {
+                download.setChecksumAlgorithm(expected.algorithm());
+                download.setExpectedChecksum(expected.hex());
+            });
+            download.setChecksumVerified(null);
+            if (!probe.uri().toString().equals(download.getUrl())) {
+                http.remember(downloadId, download.getUrl(), probe.uri());
+            }
+            List<SegmentInfo> segments = segmentRepo.findByDownloadId(downloadId);
+            // A stream of unknown length is planned open-ended again, whatever length it had
+            if (probe.totalBytes() != download.getTotalBytes() || probe.totalBytes() < 0
+                    || probe.segmented() == download.isStreaming()) {
+                checkpointer.forget(downloadId);
+                files.dropBitmap(downloadId, download.getFileName());
+                segmentRepo.deleteAll(segments);
+                download.setTotalBytes(probe.totalBytes());
+                download.setStreaming(!probe.segmented());
+                download.setAcceptsRanges(probe.acceptsRanges());
+                segments = planSegments(download, segments.size());
+            }
+            download.setStatus(DownloadStatus.DOWNLOADING);
             download.setUpdatedAt(LocalDateTime.now());
             downloadRepo.save(download);
+            restartFromZero(download, segments);
+        } catch (IOException | IllegalArgumentException e) {
+            downloadRepo.updateStatus(downloadId, DownloadStatus.FAILED, LocalDateTime.now());
+            registry.setStatus(downloadId, DownloadStatus.FAILED);
+            release(downloadId);
+        } finally {
+            restarting.remove(downloadId);
         }
     }
 
+    // Give interrupted workers a moment to save their state before the offsets are reset
+    private void awaitStopped(Long downloadId) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (scheduler.getActiveCount(downloadId) > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check if all segments are completed; if so, verify the file and mark the download complete.
+     * Verifying may hash the rest of the file and fetch damaged blocks again, so it runs outside
+     * the service lock, by one caller per download; only the status change takes the lock.
+     */
+    private void checkAndCompleteDownload(Download download) {
+        Long downloadId = download.getId();
+        if (!isDownloading(downloadId)) {
+            return; // another segment already settled it
+        }
+        List<SegmentInfo> segments = segmentRepo.findByDownloadId(downloadId);
+        boolean allDone = segments.stream()
+                            .allMatch(seg -> seg.getStatus() == SegmentStatus.COMPLETED);
+        if (!allDone || !completing.add(downloadId)) {
+            return;
+        }
+        try {
+            // The follower has hashed most of the file by now; finish it before deciding
+            IntegrityVerifier.Result result = integrity.verify(downloadId);
+            Boolean verified = result != null ? result.matches() : null;
+            synchronized (this) {
+                if (!isDownloading(downloadId)) {
+                    return; // paused or cancelled while it was being verified
+                }
+                if (result != null && result.sha256() != null) {
+                    download.setContentSha256(result.sha256());
+                    downloadRepo.updateContentSha256(downloadId, result.sha256());
+                }
+                if (verified != null) {
+                    download.setChecksumVerified(verified);
+                    downloadRepo.updateChecksumVerified(downloadId, verified);
+                }
+                // The index has served its purpose; after a mismatch no block can be trusted either
+                files.dropBitmap(downloadId, download.getFileName());
+                if (Boolean.FALSE.equals(verified)) {
+                    download.setStatus(DownloadStatus.FAILED);
+                    download.setUpdatedAt(LocalDateTime.now());
+                    downloadRepo.updateStatus(downloadId, DownloadStatus.FAILED, download.getUpdatedAt());
+                    registry.setStatus(downloadId, DownloadStatus.FAILED);
+                    release(downloadId);
+                    return;
+                }
+                // Update the row only: saving the entity would cascade the segment list it was
+                // loaded with over the offsets the workers have written since
+                download.setStatus(DownloadStatus.COMPLETED);
+                download.setUpdatedAt(LocalDateTime.now());
+                downloadRepo.updateStatus(downloadId, DownloadStatus.COMPLETED, download.getUpdatedAt());
+                registry.setStatus(downloadId, DownloadStatus.COMPLETED);
+                // The stages have most of the file already; they get the tail and finish
+                postProcessor.finish(download);
+                release(downloadId);
+            }
+        } finally {
+            completing.remove(downloadId);
+        }
+    }
+
+    private boolean isDownloading(Long downloadId) {
+        DownloadProgress live = registry.get(downloadId);
+        return live == null || live.getStatus() == DownloadStatus.DOWNLOADING;
+    }
+
+    // Mark the download failed once no segment is running or waiting and at least one failed
+    private synchronized void checkAndFailDownload(Download download) {
+        Long downloadId = download.getId();
+        DownloadProgress live = registry.get(downloadId);
+        AtomicBoolean cancelFlag = cancelFlags.get(downloadId);
+        if (live == null || live.getStatus() != DownloadStatus.DOWNLOADING
+                || (cancelFlag != null && cancelFlag.get()) || restarting.contains(downloadId)) {
+            return;
+        }
+        boolean stillRunning = live.getSegments().stream()
+                .anyMatch(p -> p.getStatus() == SegmentStatus.DOWNLOADING || p.getStatus() == SegmentStatus.PENDING);
+        if (!stillRunning) {
+            markFailed(download);
+        }
+    }
+
+    private void markFailed(Download download) {
+        download.setStatus(DownloadStatus.FAILED);
+        download.setUpdatedAt(LocalDateTime.now());
+        downloadRepo.updateStatus(download.getId(), DownloadStatus.FAILED, download.getUpdatedAt());
+        registry.setStatus(download.getId(), DownloadStatus.FAILED);
+        release(download.getId());
+    }
+
     // Get download status and progress
     public DownloadStatus getStatus(Long downloadId) {
         return downloadRepo.findById(downloadId)
@@ -222,41 +1130,44 @@ public class DownloadService {
                 .orElseThrow(() -> new IllegalArgumentException("Invalid download ID"));
     }
 
-    /** List all downloads that are not yet completed (IN_PROGRESS, PAUSED, PENDING). */
-    public List<Download> listDownloads() {
-        return downloadRepo.findAll()
-                .stream()
-                .filter(d -> d.getStatus() == DownloadStatus.PENDING
-                        || d.getStatus() == DownloadStatus.DOWNLOADING
-                        || d.getStatus() == DownloadStatus.PAUSED)
-                .toList();
+    /** List downloads that are not yet completed (DOWNLOADING, PAUSED, PENDING, WAITING, PROBING), one page at a time. */
+    public Page<DownloadSummary> listDownloads(Pageable pageable) {
+        return downloadRepo.findSummariesByStatusIn(
+                List.of(DownloadStatus.PROBING, DownloadStatus.PENDING, DownloadStatus.WAITING, DownloadStatus.DOWNLOADING, DownloadStatus.PAUSED), pageable);
     }
 
-    /** List history: COMPLETED, FAILED, CANCELLED. */
-    public List<Download> listHistory() {
-        return downloadRepo.findAll()
-                .stream()
-                .filter(d -> d.getStatus() == DownloadStatus.COMPLETED
-                        || d.getStatus() == DownloadStatus.FAILED
-                        || d.getStatus() == DownloadStatus.CANCELLED)
-                .toList();
+    /** List history: COMPLETED, FAILED, CANCELLED, one page at a time. */
+    public Page<DownloadSummary> listHistory(Pageable pageable) {
+        return downloadRepo.findSummariesByStatusIn(
+                List.of(DownloadStatus.COMPLETED, DownloadStatus.FAILED, DownloadStatus.CANCELLED), pageable);
     }
 
     /** Cancel a download: set cancel flag and update status. */
     public void cancelDownload(Long downloadId) {
         Download download = downloadRepo.findById(downloadId)
                 .orElseThrow(() -> new IllegalArgumentException("Invalid download ID"));
+        // A download still probing or waiting on an identical transfer has written nothing;
+        // its file name may be another's
+        boolean wrote = download.getStatus() != DownloadStatus.WAITING && download.getStatus() != DownloadStatus.PROBING;
         download.setStatus(DownloadStatus.CANCELLED);
         downloadRepo.save(download);
 
-        // Signal cancellation
+        // Signal cancellation and interrupt whatever is still transferring
         cancelFlags.computeIfAbsent(downloadId, id -> new AtomicBoolean())
                 .set(true);
+        scheduler.cancel(downloadId);
+        release(downloadId);
+        registry.setStatus(downloadId, DownloadStatus.CANCELLED);
+        checkpointer.forget(downloadId);
 
         // Delete partial file
+        files.close(downloadId);
         File f = new File(download.getFileName());
-        if (f.exists()) {
-            f.delete();
+        if (wrote) {
+            files.dropBitmap(downloadId, download.getFileName());
+            if (f.exists()) {
+                f.delete();
+            }
         }
     }
 }
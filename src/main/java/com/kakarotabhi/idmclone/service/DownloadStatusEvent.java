@@ -0,0 +1,6 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+
+/** Published whenever a download moves to another status. */
+public record DownloadStatusEvent(Long downloadId, DownloadStatus status) { }
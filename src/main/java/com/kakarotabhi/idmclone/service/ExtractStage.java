@@ -0,0 +1,73 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.ByteSink;
+import com.kakarotabhi.idmclone.downloader.GzipDecoder;
+import com.kakarotabhi.idmclone.downloader.TarExtractor;
+import com.kakarotabhi.idmclone.entity.Download;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * "extract": unpacks .tar, .tar.gz/.tgz and .gz downloads while they arrive. An archive goes
+ * into a directory named after it; a gzipped single file becomes that file. Both land next to
+ * the download, or under {@code download.postprocess.extract-dir}. Other files are left alone.
+ */
+@Component
+public class ExtractStage implements PostProcessStage {
+
+    // Where archives are unpacked; empty for the download's own directory
+    @Value("${download.postprocess.extract-dir:}")
+    private String extractDir;
+
+    @Override
+    public String name() {
+        return "extract";
+    }
+
+    @Override
+    public Run start(Download download) throws IOException {
+        Path file = Path.of(download.getFileName()).toAbsolutePath();
+        String name = file.getFileName().toString();
+        String lower = name.toLowerCase(Locale.ROOT);
+        Path parent = extractDir.isBlank() ? file.getParent() : Path.of(extractDir);
+        ByteSink sink;
+        if (lower.endsWith(".tar.gz")) {
+            sink = new GzipDecoder(new TarExtractor(parent.resolve(stem(name, 7))));
+        } else if (lower.endsWith(".tgz")) {
+            sink = new GzipDecoder(new TarExtractor(parent.resolve(stem(name, 4))));
+        } else if (lower.endsWith(".tar")) {
+            sink = new TarExtractor(parent.resolve(stem(name, 4)));
+        } else if (lower.endsWith(".gz")) {
+            sink = new GzipDecoder(ByteSink.toFile(parent.resolve(stem(name, 3))));
+        } else {
+            return null;
+        }
+        return new Run() {
+            @Override
+            public void accept(ByteBuffer bytes) throws IOException {
+                sink.write(bytes);
+            }
+
+            @Override
+            public void finish() throws IOException {
+                sink.finish();
+            }
+
+            @Override
+            public void abort() {
+                sink.abort();
+            }
+        };
+    }
+
+    // File name without its archive extension
+    private static String stem(String name, int extension) {
+        String stem = name.substring(0, name.length() - extension);
+        return stem.isEmpty() ? "extracted" : stem;
+    }
+}
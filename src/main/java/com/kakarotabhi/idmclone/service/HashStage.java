@@ -0,0 +1,37 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.Checksums;
+import com.kakarotabhi.idmclone.entity.Download;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** "sha256": writes the SHA-256 of a download next to it as {@code <file>.sha256}, in sha256sum format. */
+@Component
+public class HashStage implements PostProcessStage {
+
+    @Override
+    public String name() {
+        return "sha256";
+    }
+
+    @Override
+    public Run start(Download download) {
+        Path file = Path.of(download.getFileName());
+        Checksums.Hasher hasher = Checksums.newHasher(Checksums.SHA_256);
+        return new Run() {
+            @Override
+            public void accept(ByteBuffer bytes) {
+                hasher.update(bytes);
+            }
+
+            @Override
+            public void finish() throws IOException {
+                Files.writeString(Path.of(file + ".sha256"), hasher.hex() + "  " + file.getFileName() + "\n");
+            }
+        };
+    }
+}
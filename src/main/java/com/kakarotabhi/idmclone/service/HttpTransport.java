@@ -0,0 +1,304 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.HttpStatusException;
+import com.kakarotabhi.idmclone.downloader.RemoteChangedException;
+import com.kakarotabhi.idmclone.downloader.ThrottledException;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The one HTTP client every probe and segment request goes through.
+ * <p>
+ * Connections are pooled and kept alive between segments, and over HTTP/2 all range requests
+ * to an origin share one connection as separate streams, so a segment no longer pays for its
+ * own TCP and TLS setup. Redirects are followed once per download and source URL: the final
+ * location is remembered and later range requests go straight to it.
+ * <p>
+ * How long an idle pooled connection is kept is a JVM-wide setting of the JDK client, read
+ * once when the first client in the JVM starts: {@code -Djdk.httpclient.keepalive.timeout}
+ * (seconds). It is left to the command line rather than set from here.
+ */
+@Component
+public class HttpTransport {
+
+    // Content-Range of a 206; the total is "*" when the server does not know it
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+\\d+-\\d+/(\\d+|\\*)");
+    // All a one-byte 206 says about the whole file; its other headers describe the single byte
+    private static final Set<String> VALIDATOR_HEADERS = Set.of("etag", "last-modified");
+
+    @Autowired
+    private DownloadMetrics metrics;
+
+    @Value("${download.http.version:HTTP_2}")
+    private HttpClient.Version version;
+
+    @Value("${download.http.connect-timeout-ms:10000}")
+    private long connectTimeoutMs;
+
+    // Time allowed until the response headers arrive
+    @Value("${download.http.response-timeout-ms:30000}")
+    private long responseTimeoutMs;
+
+    // (download, URL) -> location the URL redirected to; a download has one URL per mirror
+    private final ConcurrentMap<Source, URI> resolved = new ConcurrentHashMap<>();
+    // (download, URL) -> validators of the version being downloaded, as that URL reports them
+    private final ConcurrentMap<Source, Validators> validators = new ConcurrentHashMap<>();
+    private HttpClient client;
+
+    private record Source(Long downloadId, String url) { }
+
+    @PostConstruct
+    void init() {
+        client = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                // Keeps the client's default platform-thread executor: callers are virtual threads
+                // that may be pinned while holding a monitor, and responses must still get through
+                .build();
+    }
+
+    public HttpClient getClient() {
+        return client;
+    }
+
+    /** HEAD request for size and headers; {@link HttpResponse#uri()} is the location after redirects. */
+    public HttpResponse<Void> head(String url) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(Duration.ofMillis(responseTimeoutMs))
+                .build();
+        return metrics.request("idm.http.probe", SegmentScheduler.hostOf(url),
+                () -> send(request, HttpResponse.BodyHandlers.discarding()));
+    }
+
+    /** What a server offers for a URL, as found by {@link #probe}. */
+    public record Probe(URI uri, HttpHeaders headers, long totalBytes, boolean acceptsRanges) {
+
+        /** Parallel ranges need both; anything else is streamed over one connection. */
+        public boolean segmented() {
+            return acceptsRanges && totalBytes > 0;
+        }
+    }
+
+    /**
+     * Find the length and range support of a URL: HEAD first, then a {@code bytes=0-0} GET for
+     * servers that do not advertise both, then a plain GET for those that refuse that too.
+     * Bodies are closed unread. {@link Probe#headers()} describe the whole file.
+     */
+    public Probe probe(String url) throws IOException {
+        HttpResponse<Void> head = null;
+        try {
+            head = head(url);
+        } catch (IOException e) {
+            if (e instanceof InterruptedIOException) {
+                throw e;
+            }
+            // Some servers drop HEAD; the GETs below decide
+        }
+        long headLength = -1;
+        if (head != null && head.statusCode() / 100 == 2) {
+            headLength = head.headers().firstValueAsLong("Content-Length").orElse(-1);
+            boolean advertised = head.headers().firstValue("Accept-Ranges")
+                    .map(v -> v.trim().equalsIgnoreCase("bytes")).orElse(false);
+            if (advertised && headLength > 0) {
+                return new Probe(head.uri(), head.headers(), headLength, true);
+            }
+        } else {
+            head = null;
+        }
+
+        String host = SegmentScheduler.hostOf(url);
+        HttpRequest ranged = HttpRequest.newBuilder(URI.create(url))
+                .header("Range", "bytes=0-0")
+                .timeout(Duration.ofMillis(responseTimeoutMs))
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = metrics.request("idm.http.probe", host,
+                () -> send(ranged, HttpResponse.BodyHandlers.ofInputStream()));
+        response.body().close();
+        if (response.statusCode() == 206) {
+            long total = totalLength(response.headers());
+            if (total < 0) {
+                total = headLength;
+            }
+            HttpHeaders headers = head != null ? head.headers()
+                    : HttpHeaders.of(response.headers().map(), (name, value) -> VALIDATOR_HEADERS.contains(name.toLowerCase()));
+            return new Probe(response.uri(), headers, total, true);
+        }
+        if (response.statusCode() != 200) {
+            // e.g. 416 for an empty file, or a server that rejects Range outright
+            HttpRequest plain = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofMillis(responseTimeoutMs))
+                    .GET()
+                    .build();
+            response = metrics.request("idm.http.probe", host,
+                    () -> send(plain, HttpResponse.BodyHandlers.ofInputStream()));
+            response.body().close();
+            if (response.statusCode() / 100 != 2) {
+                throw new HttpStatusException(response.statusCode(), "Unexpected HTTP status " + response.statusCode());
+            }
+        }
+        // Chunked responses have no length until they end
+        long length = response.headers().firstValueAsLong("Content-Length").orElse(headLength);
+        return new Probe(response.uri(), head != null ? head.headers() : response.headers(), length, false);
+    }
+
+    /**
+     * GET {@code bytes=start-end} of a download. Throws {@link ThrottledException} on 429/503,
+     * {@link RemoteChangedException} when the response comes from another version than the one
+     * registered with {@link #expect}, and {@link IOException} on any other status than 206, or
+     * 200 for a range starting at zero.
+     */
+    public HttpResponse<InputStream> getRange(Long downloadId, String url, long start, long end) throws IOException {
+        return metrics.request("idm.http.range", SegmentScheduler.hostOf(url), () -> fetchRange(downloadId, url, start, end));
+    }
+
+    /**
+     * GET a download from byte {@code start} to whatever end the server has: a plain GET from
+     * the start, {@code bytes=start-} to continue. Fails like {@link #getRange}.
+     */
+    public HttpResponse<InputStream> getStream(Long downloadId, String url, long start) throws IOException {
+        return metrics.request("idm.http.range", SegmentScheduler.hostOf(url), () -> fetchRange(downloadId, url, start, -1));
+    }
+
+    // end < 0 asks for the rest of the file
+    private HttpResponse<InputStream> fetchRange(Long downloadId, String url, long start, long end) throws IOException {
+        Source source = new Source(downloadId, url);
+        URI original = URI.create(url);
+        URI target = resolved.getOrDefault(source, original);
+        Validators expected = validators.get(source);
+        HttpResponse<InputStream> response = send(rangeRequest(target, start, end, expected),
+                HttpResponse.BodyHandlers.ofInputStream());
+        int code = response.statusCode();
+        if (!target.equals(original) && (code == 401 || code == 403 || code == 404 || code == 410)) {
+            // The remembered location expired (e.g. a signed CDN link); resolve it again
+            response.body().close();
+            resolved.remove(source);
+            target = original;
+            response = send(rangeRequest(target, start, end, expected), HttpResponse.BodyHandlers.ofInputStream());
+            code = response.statusCode();
+        }
+        if (!response.uri().equals(target)) {
+            resolved.put(source, response.uri());
+        }
+        if (code == 429 || code == 503) {
+            response.body().close();
+            throw new ThrottledException(code);
+        }
+        boolean ranged = start > 0 || end >= 0;
+        if (ranged && expected != null && (code == 200 || code == 206) && expected.changedIn(response.headers())) {
+            // With If-Range the server sends the whole new version (200); without, a range of it
+            response.body().close();
+            throw new RemoteChangedException("Remote file changed: expected " + expected.ifRange()
+                    + ", got " + Validators.of(response.headers()).ifRange());
+        }
+        if (code != 206 && !(code == 200 && start == 0)) {
+            response.body().close();
+            throw new HttpStatusException(code, "Unexpected HTTP status " + code + " for range " + start + "-" + end);
+        }
+        return response;
+    }
+
+    /**
+     * Only accept range responses of a download from {@code url} when they come from the version
+     * with these validators; range requests carry {@code If-Range} so a changed file is answered
+     * with a full 200 instead of a foreign range.
+     */
+    public void expect(Long downloadId, String url, Validators expected) {
+        Source source = new Source(downloadId, url);
+        if (expected.ifRange() != null) {
+            validators.put(source, expected);
+        } else {
+            validators.remove(source);
+        }
+    }
+
+    /** Send the range requests of a download for {@code url} straight to where its probe was redirected. */
+    public void remember(Long downloadId, String url, URI location) {
+        resolved.put(new Source(downloadId, url), location);
+    }
+
+    /** Drop the remembered redirects and validators of a download that stopped for good. */
+    public void forget(Long downloadId) {
+        resolved.keySet().removeIf(source -> source.downloadId().equals(downloadId));
+        validators.keySet().removeIf(source -> source.downloadId().equals(downloadId));
+    }
+
+    /** Total length a 206 response reports in its Content-Range; -1 when absent or unknown. */
+    public static long totalLength(HttpHeaders headers) {
+        Matcher m = CONTENT_RANGE.matcher(headers.firstValue("Content-Range").orElse(""));
+        return m.matches() && !m.group(1).equals("*") ? Long.parseLong(m.group(1)) : -1;
+    }
+
+    private HttpRequest rangeRequest(URI uri, long start, long end, Validators expected) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofMillis(responseTimeoutMs))
+                .GET();
+        if (start == 0 && end < 0) {
+            return builder.build(); // the whole file: nothing to resume, nothing to validate
+        }
+        builder.header("Range", "bytes=" + start + "-" + (end >= 0 ? end : ""));
+        if (expected != null) {
+            builder.header("If-Range", expected.ifRange());
+        }
+        return builder.build();
+    }
+
+    /** ETag and Last-Modified of one version of a file; either may be null. */
+    public record Validators(String etag, String lastModified) {
+
+        public static Validators of(HttpHeaders headers) {
+            return new Validators(headers.firstValue("ETag").orElse(null),
+                    headers.firstValue("Last-Modified").orElse(null));
+        }
+
+        /** A strong ETag, else Last-Modified; weak ETags are not allowed in If-Range. */
+        public String ifRange() {
+            if (etag != null && !etag.startsWith("W/")) {
+                return etag;
+            }
+            return lastModified;
+        }
+
+        /** Whether a response carries a validator that differs from ours. Missing ones prove nothing. */
+        public boolean changedIn(HttpHeaders headers) {
+            Validators other = of(headers);
+            if (etag != null && other.etag != null) {
+                return !opaque(etag).equals(opaque(other.etag));
+            }
+            return lastModified != null && other.lastModified != null && !lastModified.equals(other.lastModified);
+        }
+
+        // Servers may weaken an ETag when they compress; the opaque part still identifies the version
+        private static String opaque(String etag) {
+            return etag.startsWith("W/") ? etag.substring(2) : etag;
+        }
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws IOException {
+        try {
+            return client.send(request, handler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + request.uri());
+        }
+    }
+}
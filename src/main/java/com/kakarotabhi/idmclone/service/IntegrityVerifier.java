@@ -0,0 +1,239 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.BlockChecksums;
+import com.kakarotabhi.idmclone.downloader.Checksums;
+import com.kakarotabhi.idmclone.downloader.DownloadFile;
+import com.kakarotabhi.idmclone.entity.Download;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32C;
+
+/**
+ * Checks downloads that have an expected checksum while they are being written, so completion
+ * does not need a second pass over the file. Downloads the content cache can keep (with a
+ * validator or a checksum) get their SHA-256 computed on the same pass, as the cache key.
+ * <p>
+ * Writers record a CRC32C per block as they write (see {@link BlockChecksums}). Behind them a
+ * follower hashes the contiguous prefix of the file, block by block, while those blocks are
+ * still in the page cache. A block whose bytes on disk no longer match the CRC recorded at
+ * write time is fetched again on its own. When the last segment finishes only the tail is
+ * left to hash, and the result decides between COMPLETED and FAILED.
+ * <p>
+ * The block CRCs come from the bytes as they were received, so they only catch damage that
+ * happened after the bytes reached the writer, on the way to or on the disk. Bytes corrupted
+ * in transit match their CRC; the server offers nothing per block to check them against, so
+ * such a download is only caught by the final hash and fails as a whole.
+ */
+@Component
+public class IntegrityVerifier {
+
+    @Autowired
+    private DownloadFiles files;
+
+    @Autowired
+    private HttpTransport http;
+
+    @Autowired
+    private ProgressRegistry registry;
+
+    @Value("${download.integrity.block-size:1048576}")
+    private int blockSize;
+
+    @Value("${download.cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    // Attempts to repair a block that was damaged on disk
+    @Value("${download.integrity.max-refetches:3}")
+    private int maxRefetches;
+
+    private final ConcurrentMap<Long, Follower> followers = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private class Follower {
+        final Long downloadId;
+        final String url;
+        final String fileName;
+        final long totalBytes;
+        final String expected;           // null when only the content hash is wanted
+        final Checksums.Hasher hasher;   // of the expected checksum's algorithm
+        final Checksums.Hasher content;  // SHA-256 for the content cache, possibly the same hasher
+        final BlockChecksums blocks;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(blockSize);
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile long hashed; // the hash covers [0, hashed)
+
+        Follower(Download download) {
+            this.downloadId = download.getId();
+            this.url = download.getUrl();
+            this.fileName = download.getFileName();
+            this.totalBytes = download.getTotalBytes();
+            this.expected = download.getChecksumAlgorithm() != null ? download.getExpectedChecksum() : null;
+            this.hasher = expected != null ? Checksums.newHasher(download.getChecksumAlgorithm()) : null;
+            this.content = !cacheEnabled ? null
+                    : Checksums.SHA_256.equals(download.getChecksumAlgorithm()) && hasher != null
+                    ? hasher : Checksums.newHasher(Checksums.SHA_256);
+            this.blocks = new BlockChecksums(blockSize, totalBytes);
+        }
+    }
+
+    /** Outcome of {@link #verify}. */
+    public record Result(Boolean matches, String sha256) {
+        // matches is null when nothing was expected, sha256 when the content cache is off
+    }
+
+    /**
+     * Start following a download if it has an expected checksum or the content cache may keep
+     * it. Safe to call again on resume. A stream of unknown length is opened once it has ended,
+     * and hashed in one go by {@link #verify}.
+     */
+    public void open(Download download) {
+        boolean checked = download.getExpectedChecksum() != null && download.getChecksumAlgorithm() != null;
+        boolean cacheable = cacheEnabled
+                && new HttpTransport.Validators(download.getEtag(), download.getLastModified()).ifRange() != null;
+        if ((checked || cacheable) && download.getTotalBytes() >= 0) {
+            followers.computeIfAbsent(download.getId(), id -> new Follower(download));
+        }
+    }
+
+    /** Per-writer block checksum state, or null when the download is not verified. */
+    public BlockChecksums.Tracker tracker(Long downloadId) {
+        Follower follower = followers.get(downloadId);
+        return follower != null ? follower.blocks.tracker() : null;
+    }
+
+    public void forget(Long downloadId) {
+        followers.remove(downloadId);
+    }
+
+    /**
+     * End of the prefix that has been checked against the block CRCs; bytes past it may still be
+     * fetched again. Unlimited for a download that is not being verified.
+     */
+    public long checkedUpTo(Long downloadId) {
+        Follower follower = followers.get(downloadId);
+        return follower != null ? follower.hashed : Long.MAX_VALUE;
+    }
+
+    /** Hash whatever new prefix the writers have completed, off the scheduler thread. */
+    @Scheduled(fixedDelayString = "${download.integrity.interval-ms:500}")
+    public void follow() {
+        for (Follower follower : followers.values()) {
+            if (follower.scheduled.compareAndSet(false, true)) {
+                executor.submit(() -> {
+                    try {
+                        synchronized (follower) {
+                            advance(follower, registry.contiguousPrefix(follower.downloadId));
+                        }
+                    } catch (IOException e) {
+                        // retried on the next tick; verify() reports it if it persists
+                    } finally {
+                        follower.scheduled.set(false);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Finish hashing a download whose segments are all written and compare with the expected
+     * checksum. Returns null when the download was not followed.
+     */
+    public Result verify(Long downloadId) {
+        Follower follower = followers.remove(downloadId);
+        if (follower == null) {
+            return null;
+        }
+        synchronized (follower) {
+            try {
+                advance(follower, follower.totalBytes);
+            } catch (IOException e) {
+                return new Result(follower.hasher != null ? false : null, null);
+            }
+            Boolean matches = follower.hasher != null ? follower.hasher.hex().equalsIgnoreCase(follower.expected) : null;
+            return new Result(matches, follower.content != null ? follower.content.hex() : null);
+        }
+    }
+
+    private void advance(Follower follower, long upTo) throws IOException {
+        if (follower.hashed >= upTo) {
+            return;
+        }
+        DownloadFile file = files.acquire(follower.downloadId, follower.fileName);
+        try {
+            while (follower.hashed < upTo) {
+                long start = follower.hashed;
+                long end = Math.min(start + blockSize, follower.totalBytes);
+                if (end > upTo) {
+                    return; // only whole blocks, so each can be checked against its CRC
+                }
+                int block = (int) (start / blockSize);
+                readBlock(file, follower.buffer, start, end);
+                long recorded = follower.blocks.get(block);
+                int attempts = 0;
+                while (recorded != -1 && crc(follower.buffer) != recorded) {
+                    if (++attempts > maxRefetches) {
+                        throw new IOException("Block at byte " + start + " does not match what was downloaded");
+                    }
+                    refetch(follower, file, start, end);
+                    readBlock(file, follower.buffer, start, end);
+                }
+                if (follower.hasher != null) {
+                    follower.hasher.update(follower.buffer.duplicate());
+                }
+                if (follower.content != null && follower.content != follower.hasher) {
+                    follower.content.update(follower.buffer.duplicate());
+                }
+                follower.hashed = end;
+            }
+        } finally {
+            files.release(follower.downloadId, file);
+        }
+    }
+
+    private static void readBlock(DownloadFile file, ByteBuffer buffer, long start, long end) throws IOException {
+        buffer.clear();
+        buffer.limit((int) (end - start));
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("File ends before byte " + end);
+            }
+        }
+        buffer.flip();
+    }
+
+    private static long crc(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate());
+        return crc.getValue();
+    }
+
+    // Download one block again and write it over the damaged copy
+    private void refetch(Follower follower, DownloadFile file, long start, long end) throws IOException {
+        HttpResponse<InputStream> response = http.getRange(follower.downloadId, follower.url, start, end - 1);
+        try (InputStream input = response.body()) {
+            byte[] bytes = input.readNBytes((int) (end - start));
+            if (bytes.length != end - start) {
+                throw new IOException("Short read while fetching block at byte " + start + " again");
+            }
+            file.write(ByteBuffer.wrap(bytes), start);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,200 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.HttpStatusException;
+import com.kakarotabhi.idmclone.downloader.RemoteChangedException;
+import com.kakarotabhi.idmclone.entity.Download;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The URLs a download's segments are fetched from: its own and the mirrors stored with it.
+ * <p>
+ * Each connection is handed the source with the fewest connections per byte per second it
+ * has delivered, so ranges spread over the mirrors in proportion to their measured
+ * throughput; sources not measured yet are tried first. A mirror is dropped once it serves
+ * another version or length, answers with an error status, or fails
+ * {@code download.mirrors.max-failures} times in a row. The download's own URL is never
+ * dropped; its errors go through the usual retry and failure handling.
+ */
+@Component
+public class MirrorSet {
+
+    @Autowired
+    private HttpTransport http;
+
+    @Value("${download.mirrors.max-failures:3}")
+    private int maxFailures;
+
+    // Weight of the newest measurement in a source's throughput
+    private static final double ALPHA = 0.3;
+
+    private static class Mirror {
+        final String url;
+        final boolean primary;
+        volatile boolean ready;
+        volatile String dropped; // why it is no longer used
+        int assigned;            // connections handed this source and not yet given back
+        int failures;
+        long bytes;
+        double rate = Double.NaN; // bytes per second per connection
+
+        Mirror(String url, boolean primary) {
+            this.url = url;
+            this.primary = primary;
+            this.ready = primary;
+        }
+    }
+
+    private final ConcurrentMap<Long, List<Mirror>> sources = new ConcurrentHashMap<>();
+
+    /** Mirrors of a download as stored, without its own URL. */
+    public static List<String> parse(String mirrors) {
+        return mirrors == null ? List.of() : mirrors.lines().map(String::strip).filter(m -> !m.isEmpty()).toList();
+    }
+
+    /** Whether a mirror's probe describes the same file as the download's own probe. */
+    public static boolean matches(HttpTransport.Probe own, HttpTransport.Probe mirror) {
+        return mirror.segmented() && mirror.totalBytes() == own.totalBytes()
+                && !HttpTransport.Validators.of(own.headers()).changedIn(mirror.headers());
+    }
+
+    /**
+     * Start handing out the sources of a download. Mirrors are probed again in the background,
+     * since the file may have changed since they were added, and join once they still match.
+     */
+    public void register(Download download) {
+        List<Mirror> list = new ArrayList<>();
+        list.add(new Mirror(download.getUrl(), true));
+        if (!download.isStreaming()) {
+            for (String url : parse(download.getMirrors())) {
+                list.add(new Mirror(url, false));
+            }
+        }
+        sources.put(download.getId(), list);
+        HttpTransport.Validators own = new HttpTransport.Validators(download.getEtag(), download.getLastModified());
+        for (Mirror mirror : list) {
+            if (!mirror.primary) {
+                Thread.startVirtualThread(() -> check(download, own, mirror));
+            }
+        }
+    }
+
+    private void check(Download download, HttpTransport.Validators own, Mirror mirror) {
+        try {
+            HttpTransport.Probe probe = http.probe(mirror.url);
+            if (!probe.segmented() || probe.totalBytes() != download.getTotalBytes()) {
+                mirror.dropped = "serves " + probe.totalBytes() + " bytes without ranges or of another length";
+            } else if (own.changedIn(probe.headers())) {
+                mirror.dropped = "serves another version";
+            } else {
+                http.expect(download.getId(), mirror.url, HttpTransport.Validators.of(probe.headers()));
+                if (!probe.uri().toString().equals(mirror.url)) {
+                    http.remember(download.getId(), mirror.url, probe.uri());
+                }
+                mirror.ready = true;
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            mirror.dropped = "probe failed: " + e.getMessage();
+        }
+    }
+
+    /** Pick the source for a new connection of a download; give it back with {@link #release}. */
+    public synchronized String acquire(Download download) {
+        List<Mirror> list = sources.get(download.getId());
+        if (list == null) {
+            return download.getUrl();
+        }
+        List<Mirror> usable = list.stream().filter(m -> m.ready && m.dropped == null).toList();
+        double fastest = usable.stream().filter(m -> !Double.isNaN(m.rate))
+                .mapToDouble(m -> m.rate).max().orElse(1);
+        Mirror best = usable.stream()
+                .min(Comparator.comparingDouble(m -> (m.assigned + 1)
+                        / Math.max(1, Double.isNaN(m.rate) ? fastest * 2 : m.rate)))
+                .orElse(list.get(0));
+        best.assigned++;
+        return best.url;
+    }
+
+    /** A connection is done with a source, having moved {@code bytes} in {@code nanos} of transfer. */
+    public synchronized void release(Long downloadId, String url, long bytes, long nanos) {
+        Mirror mirror = find(downloadId, url);
+        if (mirror == null) {
+            return;
+        }
+        mirror.assigned = Math.max(0, mirror.assigned - 1);
+        mirror.bytes += bytes;
+        if (bytes > 0 && nanos > 0) {
+            double rate = bytes * 1e9 / nanos;
+            mirror.rate = Double.isNaN(mirror.rate) ? rate : ALPHA * rate + (1 - ALPHA) * mirror.rate;
+            mirror.failures = 0;
+        }
+    }
+
+    /**
+     * A request to a source failed. Returns true when it was a mirror and has been dropped, so
+     * the caller should move on to another source; the download's own URL is never dropped.
+     */
+    public synchronized boolean fail(Long downloadId, String url, IOException e) {
+        Mirror mirror = find(downloadId, url);
+        if (mirror == null || mirror.primary) {
+            return false;
+        }
+        if (e instanceof RemoteChangedException) {
+            mirror.dropped = e.getMessage();
+        } else if (e instanceof HttpStatusException status) {
+            mirror.dropped = "HTTP " + status.getStatusCode();
+        } else if (++mirror.failures >= maxFailures) {
+            mirror.dropped = mirror.failures + " failures, last: " + e.getMessage();
+        }
+        return mirror.dropped != null;
+    }
+
+    public void forget(Long downloadId) {
+        sources.remove(downloadId);
+    }
+
+    /** Per-source state for the status endpoint; empty for a download without mirrors. */
+    public synchronized List<Map<String, Object>> describe(Long downloadId) {
+        List<Mirror> list = sources.get(downloadId);
+        List<Map<String, Object>> result = new ArrayList<>();
+        if (list == null || list.size() < 2) {
+            return result;
+        }
+        for (Mirror mirror : list) {
+            Map<String, Object> m = new HashMap<>();
+            m.put("url", mirror.url);
+            m.put("connections", mirror.assigned);
+            m.put("downloadedBytes", mirror.bytes);
+            m.put("bytesPerSecond", Double.isNaN(mirror.rate) ? 0 : Math.round(mirror.rate));
+            m.put("status", mirror.dropped != null ? "DROPPED" : mirror.ready ? "ACTIVE" : "PROBING");
+            if (mirror.dropped != null) {
+                m.put("reason", mirror.dropped);
+            }
+            result.add(m);
+        }
+        return result;
+    }
+
+    private Mirror find(Long downloadId, String url) {
+        List<Mirror> list = sources.get(downloadId);
+        if (list == null) {
+            return null;
+        }
+        for (Mirror mirror : list) {
+            if (mirror.url.equals(url)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+}
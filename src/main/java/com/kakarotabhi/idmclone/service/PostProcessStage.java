@@ -0,0 +1,36 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.entity.Download;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A step run on a download's file as it arrives, such as hashing or extracting an archive.
+ * Stages are Spring beans, picked by {@link #name()} from the list a download asks for.
+ * <p>
+ * A run sees the bytes of the file in order, from the contiguous prefix that is already on
+ * disk while later segments are still downloading, and is finished once the download has
+ * completed. Calls come from the bounded post-processing executor, one at a time per run.
+ */
+public interface PostProcessStage {
+
+    /** Name a download asks for the stage by. */
+    String name();
+
+    /** Start on a download; null when the stage has nothing to do for it. */
+    Run start(Download download) throws IOException;
+
+    interface Run {
+
+        /** The next bytes of the file. The buffer is only valid during the call. */
+        void accept(ByteBuffer bytes) throws IOException;
+
+        /** Every byte has been passed and the file is complete on disk. */
+        void finish() throws IOException;
+
+        /** The download was cancelled, failed or started over; nothing more is passed. */
+        default void abort() {
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.DownloadFile;
+import com.kakarotabhi.idmclone.entity.Download;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import com.kakarotabhi.idmclone.repository.DownloadRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the post-processing stages a download asks for ({@link PostProcessStage}) on its file
+ * while it is still downloading, so unpacking or hashing it needs no second pass afterwards.
+ * <p>
+ * Like the checksum follower, a pipeline reads the contiguous prefix of the file behind the
+ * writers, no further than the integrity check has confirmed when there is one, and passes it
+ * to each stage. When the download completes the stages get the tail and are finished in the
+ * order they were asked for. All pipelines share {@code download.postprocess.threads}
+ * threads. A download that stops for good or starts over drops its pipeline; the next start
+ * reads the file again from its first byte.
+ */
+@Component
+public class PostProcessor {
+
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+
+    @Autowired
+    private DownloadFiles files;
+
+    @Autowired
+    private ProgressRegistry registry;
+
+    @Autowired
+    private IntegrityVerifier integrity;
+
+    @Autowired
+    private DownloadRepository downloadRepo;
+
+    @Autowired
+    private List<PostProcessStage> stages;
+
+    @Value("${download.postprocess.threads:2}")
+    private int threads;
+
+    // Bytes read from the file and handed to the stages at a time
+    @Value("${download.postprocess.chunk-bytes:1048576}")
+    private int chunkBytes;
+
+    private final ConcurrentMap<Long, Pipeline> pipelines = new ConcurrentHashMap<>();
+    private ExecutorService executor;
+
+    private class Pipeline {
+        final Long downloadId;
+        final String fileName;
+        final List<String> names = new ArrayList<>();
+        final List<PostProcessStage.Run> runs = new ArrayList<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final ByteBuffer buffer = ByteBuffer.allocate(chunkBytes);
+        volatile long processed; // the stages have seen [0, processed)
+        volatile boolean finishing;
+        volatile String error;
+
+        Pipeline(Download download) {
+            this.downloadId = download.getId();
+            this.fileName = download.getFileName();
+        }
+    }
+
+    /** The stage list to store for a download, or null for none; unknown names are rejected. */
+    public String stageList(List<String> names) {
+        if (names == null || names.isEmpty()) {
+            return null;
+        }
+        for (String name : names) {
+            stage(name);
+        }
+        return String.join(",", names);
+    }
+
+    private PostProcessStage stage(String name) {
+        return stages.stream()
+                .filter(s -> s.name().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown post-processing stage: " + name));
+    }
+
+    /** Start the stages of a download that has some. Safe to call again on resume. */
+    public void open(Download download) {
+        if (download.getPostProcess() != null) {
+            pipelines.computeIfAbsent(download.getId(), id -> start(download));
+        }
+    }
+
+    private Pipeline start(Download download) {
+        Pipeline pipeline = new Pipeline(download);
+        downloadRepo.updatePostProcessStatus(download.getId(), RUNNING);
+        for (String name : download.getPostProcess().split(",")) {
+            try {
+                PostProcessStage.Run run = stage(name).start(download);
+                if (run != null) {
+                    pipeline.names.add(name);
+                    pipeline.runs.add(run);
+                }
+            } catch (IOException | IllegalArgumentException e) {
+                fail(pipeline, name, e);
+                break;
+            }
+        }
+        return pipeline;
+    }
+
+    /** Pass whatever new prefix the writers have completed to the stages, off the scheduler thread. */
+    @Scheduled(fixedDelayString = "${download.postprocess.interval-ms:500}")
+    public void follow() {
+        for (Pipeline pipeline : pipelines.values()) {
+            if (pipeline.error != null || pipeline.finishing || !pipeline.scheduled.compareAndSet(false, true)) {
+                continue;
+            }
+            long upTo = Math.min(registry.contiguousPrefix(pipeline.downloadId), integrity.checkedUpTo(pipeline.downloadId));
+            if (upTo <= pipeline.processed) {
+                pipeline.scheduled.set(false);
+                continue;
+            }
+            executor.submit(() -> {
+                try {
+                    synchronized (pipeline) {
+                        advance(pipeline, upTo);
+                    }
+                } catch (IOException e) {
+                    // read again on the next tick; finish() reports it if it persists
+                } finally {
+                    pipeline.scheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * The download is complete: pass the rest of the file to its stages and finish them in the
+     * background. A download completed without a pipeline, from the cache or before a restart,
+     * is read from its first byte.
+     */
+    public void finish(Download download) {
+        if (download.getPostProcess() == null) {
+            return;
+        }
+        Pipeline pipeline = pipelines.computeIfAbsent(download.getId(), id -> start(download));
+        pipeline.finishing = true;
+        long totalBytes = download.getTotalBytes();
+        executor.submit(() -> {
+            synchronized (pipeline) {
+                complete(pipeline, totalBytes);
+            }
+            pipelines.remove(pipeline.downloadId, pipeline);
+        });
+    }
+
+    private void complete(Pipeline pipeline, long totalBytes) {
+        if (pipeline.error == null) {
+            try {
+                advance(pipeline, totalBytes);
+                if (pipeline.processed < totalBytes) {
+                    throw new IOException("File ends at byte " + pipeline.processed + " of " + totalBytes);
+                }
+            } catch (IOException e) {
+                fail(pipeline, "read", e);
+            }
+        }
+        for (int i = 0; i < pipeline.runs.size() && pipeline.error == null; i++) {
+            try {
+                pipeline.runs.get(i).finish();
+            } catch (IOException | RuntimeException e) {
+                fail(pipeline, pipeline.names.get(i), e);
+            }
+        }
+        if (pipeline.error == null) {
+            downloadRepo.updatePostProcessStatus(pipeline.downloadId, COMPLETED);
+        }
+    }
+
+    /** Drop the pipeline of a download that stopped for good or starts over; a finishing one carries on. */
+    public void abort(Long downloadId) {
+        Pipeline pipeline = pipelines.get(downloadId);
+        if (pipeline == null || pipeline.finishing || !pipelines.remove(downloadId, pipeline)) {
+            return;
+        }
+        // Wait out a chunk in progress, so a new pipeline never writes next to this one
+        synchronized (pipeline) {
+            if (pipeline.error == null) {
+                pipeline.error = "aborted";
+                pipeline.runs.forEach(PostProcessStage.Run::abort);
+                downloadRepo.updatePostProcessStatus(downloadId, null);
+            }
+        }
+    }
+
+    /** State of a pipeline that is running, or null. */
+    public Map<String, Object> describe(Long downloadId) {
+        Pipeline pipeline = pipelines.get(downloadId);
+        if (pipeline == null) {
+            return null;
+        }
+        Map<String, Object> state = new HashMap<>();
+        state.put("stages", pipeline.names);
+        state.put("processedBytes", pipeline.processed);
+        state.put("status", pipeline.error != null ? FAILED + ": " + pipeline.error : RUNNING);
+        return state;
+    }
+
+    private void advance(Pipeline pipeline, long upTo) throws IOException {
+        if (pipeline.error != null || pipeline.processed >= upTo) {
+            return;
+        }
+        DownloadFile file = files.acquire(pipeline.downloadId, pipeline.fileName);
+        try {
+            ByteBuffer buffer = pipeline.buffer;
+            while (pipeline.processed < upTo && pipeline.error == null) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), upTo - pipeline.processed));
+                if (file.read(buffer, pipeline.processed) <= 0) {
+                    return; // shorter than the writers said; picked up again later
+                }
+                buffer.flip();
+                for (int i = 0; i < pipeline.runs.size(); i++) {
+                    try {
+                        pipeline.runs.get(i).accept(buffer.duplicate());
+                    } catch (IOException | RuntimeException e) {
+                        fail(pipeline, pipeline.names.get(i), e);
+                        return;
+                    }
+                }
+                pipeline.processed += buffer.remaining();
+            }
+        } finally {
+            files.release(pipeline.downloadId, file);
+        }
+    }
+
+    // One stage failing stops the others; what they wrote so far is left in place
+    private void fail(Pipeline pipeline, String stage, Exception e) {
+        pipeline.error = stage + ": " + e.getMessage();
+        pipeline.runs.forEach(PostProcessStage.Run::abort);
+        downloadRepo.updatePostProcessStatus(pipeline.downloadId, FAILED + ": " + pipeline.error);
+    }
+
+    // Stages cut off by the last shutdown after their download had completed run again
+    @EventListener(ApplicationReadyEvent.class)
+    public void reload() {
+        for (Download download : downloadRepo.findByStatusAndPostProcessStatus(DownloadStatus.COMPLETED, RUNNING)) {
+            finish(download);
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
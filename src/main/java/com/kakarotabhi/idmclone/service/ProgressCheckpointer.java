@@ -0,0 +1,74 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.DownloadProgress;
+import com.kakarotabhi.idmclone.downloader.SegmentProgress;
+import com.kakarotabhi.idmclone.store.ProgressStore;
+import com.kakarotabhi.idmclone.store.SegmentOffsets;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Periodically hands the offsets of running segments that moved to the {@link ProgressStore}
+ * in one batch, so a crash loses at most one interval of progress and write volume does not
+ * grow with the number of segments.
+ */
+@Component
+public class ProgressCheckpointer {
+
+    @Autowired
+    private ProgressRegistry registry;
+
+    @Autowired
+    private ProgressStore store;
+
+    @Autowired
+    private DownloadMetrics metrics;
+
+    // segmentId -> {downloadedBytes, endByte} as of the last flush
+    private final Map<Long, long[]> flushed = new HashMap<>();
+
+    @Scheduled(fixedDelayString = "${download.checkpoint.interval-ms:2000}")
+    public synchronized void flush() {
+        List<SegmentOffsets> batch = new ArrayList<>();
+        Map<Long, long[]> current = new HashMap<>();
+        for (DownloadProgress download : registry.all()) {
+            for (SegmentProgress progress : download.getSegments()) {
+                long[] values = {progress.getDownloadedBytes(), progress.getEndByte()};
+                current.put(progress.getSegmentId(), values);
+                long[] last = flushed.get(progress.getSegmentId());
+                if (last == null || last[0] != values[0] || last[1] != values[1]) {
+                    batch.add(new SegmentOffsets(progress.getSegmentId(), values[0], values[1]));
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            metrics.checkpoint(() -> store.write(batch));
+        }
+        // Downloads evicted from the registry since the last run saved themselves; stop tracking them
+        flushed.keySet().retainAll(current.keySet());
+        flushed.putAll(current);
+    }
+
+    /**
+     * Wait for any checkpoint in progress and drop the download's segments from the next one,
+     * before its offsets are reset.
+     */
+    public synchronized void forget(Long downloadId) {
+        List<Long> segmentIds = registry.segments(downloadId).stream().map(SegmentProgress::getSegmentId).toList();
+        segmentIds.forEach(flushed::remove);
+        store.forget(segmentIds);
+        registry.remove(downloadId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
@@ -0,0 +1,145 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.DownloadProgress;
+import com.kakarotabhi.idmclone.downloader.SegmentProgress;
+import com.kakarotabhi.idmclone.entity.Download;
+import com.kakarotabhi.idmclone.entity.SegmentInfo;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import com.kakarotabhi.idmclone.enums.SegmentStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory view of every download the engine has touched since startup, with its segments.
+ * This is the live source of truth for progress: the status endpoint reads it without going
+ * to the database, which only holds periodic checkpoints of it.
+ * <p>
+ * Downloads that stopped are kept for {@code download.progress.retain-ms} so pollers still
+ * see their final state, then evicted.
+ */
+@Component
+public class ProgressRegistry {
+
+    @Value("${download.progress.window-seconds:10}")
+    private int windowSeconds;
+
+    @Value("${download.progress.retain-ms:600000}")
+    private long retainMillis;
+
+    @Autowired
+    private ApplicationEventPublisher events;
+
+    private final ConcurrentMap<Long, DownloadProgress> downloads = new ConcurrentHashMap<>();
+
+    /** Start tracking a download, or pick up the tracking it already has, and mark it with the given status. */
+    public DownloadProgress open(Download download, List<SegmentInfo> segments, DownloadStatus status) {
+        DownloadProgress progress = downloads.computeIfAbsent(download.getId(), id -> {
+            DownloadProgress created = new DownloadProgress(id, download.getTotalBytes(), null, windowSeconds + 1);
+            for (SegmentInfo seg : segments) {
+                created.addSegmentIfAbsent(toProgress(seg));
+                created.addDownloadedBytes(seg.getDownloadedBytes());
+            }
+            return created;
+        });
+        changeStatus(progress, status);
+        return progress;
+    }
+
+    public DownloadProgress get(Long downloadId) {
+        return downloads.get(downloadId);
+    }
+
+    /**
+     * Live range of a segment; created from the entity when the segment is not tracked yet,
+     * e.g. right after a split.
+     */
+    public SegmentProgress segment(Long downloadId, SegmentInfo seg) {
+        DownloadProgress download = downloads.get(downloadId);
+        if (download == null) {
+            return toProgress(seg);
+        }
+        SegmentProgress existing = download.getSegment(seg.getId());
+        if (existing != null) {
+            return existing;
+        }
+        SegmentProgress created = download.addSegmentIfAbsent(toProgress(seg));
+        if (created.getDownloadedBytes() > 0) {
+            download.addDownloadedBytes(created.getDownloadedBytes());
+        }
+        return created;
+    }
+
+    /** All known segments of a download; empty when the download is not tracked. */
+    public Collection<SegmentProgress> segments(Long downloadId) {
+        DownloadProgress download = downloads.get(downloadId);
+        return download != null ? download.getSegments() : List.of();
+    }
+
+    /** End of the range from byte 0 that the writers have completely put on disk. */
+    public long contiguousPrefix(Long downloadId) {
+        List<SegmentProgress> sorted = segments(downloadId).stream()
+                .sorted(Comparator.comparingLong(SegmentProgress::getStartByte))
+                .toList();
+        long prefix = 0;
+        for (SegmentProgress segment : sorted) {
+            if (segment.getStartByte() > prefix) {
+                break;
+            }
+            if (!segment.isComplete()) {
+                return Math.max(prefix, segment.getFrontier());
+            }
+            prefix = Math.max(prefix, segment.getEndByte() + 1);
+        }
+        return prefix;
+    }
+
+    public Collection<DownloadProgress> all() {
+        return downloads.values();
+    }
+
+    public void setStatus(Long downloadId, DownloadStatus status) {
+        DownloadProgress download = downloads.get(downloadId);
+        if (download != null) {
+            changeStatus(download, status);
+        }
+    }
+
+    private void changeStatus(DownloadProgress download, DownloadStatus status) {
+        DownloadStatus previous = download.getStatus();
+        download.setStatus(status);
+        if (previous != status) {
+            events.publishEvent(new DownloadStatusEvent(download.getDownloadId(), status));
+        }
+    }
+
+    public void remove(Long downloadId) {
+        downloads.remove(downloadId);
+    }
+
+    @Scheduled(fixedRate = 1000)
+    public void sample() {
+        long now = System.nanoTime();
+        long retainNanos = TimeUnit.MILLISECONDS.toNanos(retainMillis);
+        downloads.values().removeIf(d -> d.getStoppedAtNanos() != 0 && now - d.getStoppedAtNanos() > retainNanos);
+        for (DownloadProgress download : downloads.values()) {
+            download.sample(now);
+        }
+    }
+
+    private static SegmentProgress toProgress(SegmentInfo seg) {
+        SegmentProgress progress = new SegmentProgress(seg.getId(), seg.getSegmentIndex(), seg.getStartByte(),
+                seg.getEndByte(), seg.getStartByte() + seg.getDownloadedBytes());
+        progress.setStatus(seg.getStatus() != null ? seg.getStatus() : SegmentStatus.PENDING);
+        return progress;
+    }
+}
@@ -0,0 +1,252 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.DownloadProgress;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes progress to Server-Sent Events subscribers instead of having them poll.
+ * <p>
+ * Each subscriber gets at most one frame per interval holding only the downloads whose
+ * bytes or status changed since its previous frame. Status transitions are coalesced into
+ * the next frame. Every subscriber has a single pending frame: if it is still being sent
+ * when the next one is ready, the two are merged, so a slow consumer skips intermediate
+ * values instead of queueing them.
+ */
+@Component
+public class ProgressStream {
+
+    @Autowired
+    private ProgressRegistry registry;
+
+    // Fastest frame rate a subscriber can ask for
+    @Value("${download.stream.min-interval-ms:250}")
+    private long minIntervalMs;
+
+    @Value("${download.stream.default-interval-ms:1000}")
+    private long defaultIntervalMs;
+
+    @Value("${download.stream.heartbeat-ms:15000}")
+    private long heartbeatMs;
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+
+    private class Subscriber {
+        final SseEmitter emitter;
+        final Long downloadId; // null for all downloads
+        final long intervalNanos;
+        // Written by the scheduler and the sender threads, read by the scheduler
+        volatile long lastFrameNanos;
+        volatile long lastSentNanos = System.nanoTime();
+        // downloadId -> {bytes, status ordinal} as of the last frame built for this subscriber
+        final Map<Long, long[]> seen = new HashMap<>();
+        final Map<Long, DownloadStatus> transitions = new LinkedHashMap<>();
+        Map<Long, Map<String, Object>> pending;
+        final AtomicBoolean sending = new AtomicBoolean();
+        final AtomicLong dropped = new AtomicLong();
+
+        Subscriber(SseEmitter emitter, Long downloadId, long intervalMs) {
+            this.emitter = emitter;
+            this.downloadId = downloadId;
+            this.intervalNanos = intervalMs * 1_000_000L;
+        }
+    }
+
+    /**
+     * Open a stream for one download, or for all of them when {@code downloadId} is null.
+     * {@code intervalMs} is clamped to the configured minimum.
+     */
+    public SseEmitter subscribe(Long downloadId, Long intervalMs) {
+        long interval = Math.max(minIntervalMs, intervalMs != null ? intervalMs : defaultIntervalMs);
+        SseEmitter emitter = new SseEmitter(0L);
+        Subscriber subscriber = new Subscriber(emitter, downloadId, interval);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        return emitter;
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /** Frames merged into a newer one because the subscriber had not taken the previous one yet. */
+    public long getDroppedFrames() {
+        return subscribers.stream().mapToLong(s -> s.dropped.get()).sum();
+    }
+
+    @EventListener
+    public void onStatusChange(DownloadStatusEvent event) {
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.downloadId == null || subscriber.downloadId.equals(event.downloadId())) {
+                synchronized (subscriber) {
+                    subscriber.transitions.put(event.downloadId(), event.status());
+                }
+            }
+        }
+    }
+
+    @Scheduled(fixedRateString = "${download.stream.min-interval-ms:250}")
+    public void publish() {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            if (now - subscriber.lastFrameNanos < subscriber.intervalNanos) {
+                continue;
+            }
+            subscriber.lastFrameNanos = now;
+            Map<Long, Map<String, Object>> frame = buildFrame(subscriber);
+            if (!frame.isEmpty()) {
+                offer(subscriber, frame);
+            } else if (now - subscriber.lastSentNanos > heartbeatMs * 1_000_000L) {
+                heartbeat(subscriber);
+            }
+        }
+    }
+
+    private Map<Long, Map<String, Object>> buildFrame(Subscriber subscriber) {
+        Map<Long, Map<String, Object>> frame = new LinkedHashMap<>();
+        synchronized (subscriber) {
+            List<DownloadProgress> downloads = new ArrayList<>();
+            if (subscriber.downloadId == null) {
+                downloads.addAll(registry.all());
+                // Forget downloads evicted from the registry
+                subscriber.seen.keySet().removeIf(id -> registry.get(id) == null);
+            } else if (registry.get(subscriber.downloadId) != null) {
+                downloads.add(registry.get(subscriber.downloadId));
+            }
+            for (DownloadProgress download : downloads) {
+                DownloadStatus status = download.getStatus();
+                long bytes = download.getDownloadedBytes();
+                long[] last = subscriber.seen.get(download.getDownloadId());
+                long statusOrdinal = status != null ? status.ordinal() : -1;
+                if (last != null && last[0] == bytes && last[1] == statusOrdinal) {
+                    continue;
+                }
+                subscriber.seen.put(download.getDownloadId(), new long[]{bytes, statusOrdinal});
+                frame.put(download.getDownloadId(), delta(download, status, bytes));
+            }
+            // Transitions of downloads no longer in the registry (e.g. cancelled) still go out
+            for (Map.Entry<Long, DownloadStatus> transition : subscriber.transitions.entrySet()) {
+                frame.computeIfAbsent(transition.getKey(), id -> {
+                    Map<String, Object> d = new HashMap<>();
+                    d.put("downloadId", id);
+                    return d;
+                }).put("status", transition.getValue());
+            }
+            subscriber.transitions.clear();
+        }
+        return frame;
+    }
+
+    private static Map<String, Object> delta(DownloadProgress download, DownloadStatus status, long bytes) {
+        Map<String, Object> d = new HashMap<>();
+        d.put("downloadId", download.getDownloadId());
+        d.put("status", status);
+        d.put("downloadedBytes", bytes);
+        d.put("totalBytes", download.getTotalBytes());
+        d.put("bytesPerSecond", Math.round(download.getBytesPerSecond()));
+        d.put("etaSeconds", download.getEtaSeconds());
+        return d;
+    }
+
+    // Merge into the pending frame and make sure a sender is draining it
+    private void offer(Subscriber subscriber, Map<Long, Map<String, Object>> frame) {
+        synchronized (subscriber) {
+            if (subscriber.pending == null) {
+                subscriber.pending = frame;
+            } else {
+                subscriber.dropped.incrementAndGet();
+                // Newer fields win, but a status-only entry must not drop the bytes of a queued full one
+                frame.forEach((id, delta) -> subscriber.pending.merge(id, delta, (queued, newer) -> {
+                    queued.putAll(newer);
+                    return queued;
+                }));
+            }
+        }
+        kick(subscriber);
+    }
+
+    private void kick(Subscriber subscriber) {
+        if (subscriber.sending.compareAndSet(false, true)) {
+            senders.submit(() -> drain(subscriber));
+        }
+    }
+
+    private void drain(Subscriber subscriber) {
+        while (true) {
+            Map<Long, Map<String, Object>> frame;
+            synchronized (subscriber) {
+                frame = subscriber.pending;
+                subscriber.pending = null;
+                if (frame == null) {
+                    subscriber.sending.set(false);
+                    return;
+                }
+            }
+            try {
+                subscriber.emitter.send(SseEmitter.event()
+                        .name("progress")
+                        .data(new ArrayList<>(frame.values())));
+                subscriber.lastSentNanos = System.nanoTime();
+            } catch (IOException | IllegalStateException e) {
+                subscribers.remove(subscriber);
+                subscriber.emitter.completeWithError(e);
+                subscriber.sending.set(false);
+                return;
+            }
+        }
+    }
+
+    private void heartbeat(Subscriber subscriber) {
+        if (subscriber.sending.compareAndSet(false, true)) {
+            senders.submit(() -> {
+                try {
+                    subscriber.emitter.send(SseEmitter.event().comment("keep-alive"));
+                    subscriber.lastSentNanos = System.nanoTime();
+                } catch (IOException | IllegalStateException e) {
+                    subscribers.remove(subscriber);
+                    subscriber.emitter.completeWithError(e);
+                } finally {
+                    subscriber.sending.set(false);
+                }
+                // A frame offered while the heartbeat was going out still needs a sender
+                boolean hasPending;
+                synchronized (subscriber) {
+                    hasPending = subscriber.pending != null;
+                }
+                if (hasPending) {
+                    kick(subscriber);
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.forEach(s -> s.emitter.complete());
+        senders.shutdownNow();
+    }
+}
@@ -0,0 +1,166 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.HttpStatusException;
+import com.kakarotabhi.idmclone.downloader.RemoteChangedException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.NoSuchFileException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether and when a failed segment attempt is repeated.
+ * <p>
+ * Retries wait a random time up to an exponentially growing cap ("full jitter"), so the
+ * segments of a download that failed together do not come back together. Each host has a
+ * circuit breaker: after {@code failure-threshold} failures in a row its requests are held
+ * back for {@code open-ms}, then a single request is let through to probe it.
+ */
+@Component
+public class RetryPolicy {
+
+    // Attempts in a row that may fail without moving the segment forward
+    @Value("${download.retry.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${download.retry.initial-backoff-ms:500}")
+    private long initialBackoffMs;
+
+    @Value("${download.retry.max-backoff-ms:30000}")
+    private long maxBackoffMs;
+
+    @Value("${download.retry.breaker.failure-threshold:5}")
+    private int failureThreshold;
+
+    @Value("${download.retry.breaker.open-ms:30000}")
+    private long openMs;
+
+    private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    private static class Breaker {
+        int consecutiveFailures;
+        long openUntilNanos;  // requests wait until then; 0 when closed
+        boolean probing;      // one request is testing the host after the open period
+        long probeStartedNanos;
+        final LongAdder retries = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder lostNanos = new LongAdder();
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Errors worth another attempt: network failures, server errors and throttling, but not
+     * pause or a 404, nor a file that was closed or deleted under the writers.
+     */
+    public boolean isRetryable(IOException e) {
+        if (e instanceof InterruptedIOException || e instanceof ClosedChannelException
+                || e instanceof NoSuchFileException || e instanceof RemoteChangedException) {
+            return false;
+        }
+        if (e instanceof HttpStatusException status) {
+            int code = status.getStatusCode();
+            return code == 408 || code == 429 || code >= 500;
+        }
+        return true;
+    }
+
+    /** Block while the host's breaker is open; returns the time spent waiting. */
+    public long awaitHost(String host) throws InterruptedIOException {
+        Breaker breaker = breakers.computeIfAbsent(host, h -> new Breaker());
+        long waited = 0;
+        while (true) {
+            long wait;
+            synchronized (breaker) {
+                long now = System.nanoTime();
+                if (breaker.openUntilNanos == 0) {
+                    return waited;
+                }
+                // A probe that never reported back (e.g. its download was paused) is replaced
+                boolean probeLost = breaker.probing
+                        && now - breaker.probeStartedNanos > TimeUnit.MILLISECONDS.toNanos(openMs);
+                if (now >= breaker.openUntilNanos && (!breaker.probing || probeLost)) {
+                    breaker.probing = true;
+                    breaker.probeStartedNanos = now;
+                    return waited;
+                }
+                // Open, or another request is probing: look again shortly
+                wait = Math.max(breaker.openUntilNanos - now, TimeUnit.MILLISECONDS.toNanos(initialBackoffMs));
+            }
+            sleep(wait);
+            waited += wait;
+        }
+    }
+
+    public void onSuccess(String host) {
+        Breaker breaker = breakers.computeIfAbsent(host, h -> new Breaker());
+        synchronized (breaker) {
+            breaker.consecutiveFailures = 0;
+            breaker.openUntilNanos = 0;
+            breaker.probing = false;
+        }
+    }
+
+    public void onFailure(String host) {
+        Breaker breaker = breakers.computeIfAbsent(host, h -> new Breaker());
+        breaker.failures.increment();
+        synchronized (breaker) {
+            breaker.consecutiveFailures++;
+            if (breaker.probing || breaker.consecutiveFailures >= failureThreshold) {
+                breaker.openUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(openMs);
+                breaker.probing = false;
+            }
+        }
+    }
+
+    /** Sleep before attempt number {@code attempt} (1 for the first retry); returns the time slept. */
+    public long backoff(String host, int attempt) throws InterruptedIOException {
+        long cap = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt - 1, 20));
+        long wait = TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(cap + 1));
+        breakers.computeIfAbsent(host, h -> new Breaker()).retries.increment();
+        sleep(wait);
+        return wait;
+    }
+
+    public void addLostNanos(String host, long nanos) {
+        breakers.computeIfAbsent(host, h -> new Breaker()).lostNanos.add(nanos);
+    }
+
+    /** Per-host counters and breaker state, for spotting flaky origins. */
+    public Map<String, Map<String, Object>> getHostStats() {
+        Map<String, Map<String, Object>> stats = new HashMap<>();
+        long now = System.nanoTime();
+        breakers.forEach((host, breaker) -> {
+            Map<String, Object> s = new HashMap<>();
+            s.put("retries", breaker.retries.sum());
+            s.put("failures", breaker.failures.sum());
+            s.put("lostMillis", breaker.lostNanos.sum() / 1_000_000);
+            synchronized (breaker) {
+                s.put("breaker", breaker.openUntilNanos == 0 ? "CLOSED"
+                        : now < breaker.openUntilNanos ? "OPEN" : "HALF_OPEN");
+            }
+            stats.put(host, s);
+        });
+        return stats;
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+}
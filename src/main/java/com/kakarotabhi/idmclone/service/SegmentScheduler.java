@@ -0,0 +1,216 @@
+package com.kakarotabhi.idmclone.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs segment transfers on virtual threads under a global connection limit,
+ * a per-host limit and a per-download limit.
+ * <p>
+ * Waiting segments are kept in one queue per download and dispatched round-robin,
+ * so a download with many segments cannot starve the ones submitted after it.
+ */
+@Component
+public class SegmentScheduler {
+
+    @Value("${download.scheduler.max-connections:64}")
+    private int maxConnections;
+
+    @Value("${download.scheduler.max-per-host:16}")
+    private int maxPerHost;
+
+    @Value("${download.scheduler.max-per-download:8}")
+    private int maxPerDownload;
+
+    // downloadId -> connection limit chosen by the adaptive controller, overriding maxPerDownload
+    private final Map<Long, Integer> downloadLimits = new HashMap<>();
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // downloadId -> waiting segment jobs; iteration order is the round-robin order
+    private final LinkedHashMap<Long, ArrayDeque<Job>> queues = new LinkedHashMap<>();
+    private final Map<Long, Set<Running>> running = new HashMap<>();
+    private final Map<Long, Integer> activePerDownload = new HashMap<>();
+    private final Map<String, Integer> activePerHost = new HashMap<>();
+    private int active;
+    private int queued;
+
+    private record Job(Long downloadId, String host, Runnable task) { }
+
+    // A started job. Cancelling sets the flag and interrupts the thread rather than cancelling a
+    // Future, so a job cancelled before its thread runs still gives its slots back
+    private static final class Running {
+        final Job job;
+        volatile Thread thread;
+        volatile boolean cancelled;
+
+        Running(Job job) {
+            this.job = job;
+        }
+
+        void cancel() {
+            cancelled = true;
+            Thread t = thread;
+            if (t != null) {
+                t.interrupt();
+            }
+        }
+    }
+
+    /** Queue a segment transfer for the given download; it starts as soon as a connection slot is free. */
+    public synchronized void submit(Long downloadId, String url, Runnable task) {
+        queues.computeIfAbsent(downloadId, id -> new ArrayDeque<>())
+                .add(new Job(downloadId, hostOf(url), task));
+        queued++;
+        dispatch();
+    }
+
+    /** Drop the queued segments of a download without touching the ones already transferring. */
+    public synchronized void removeQueued(Long downloadId) {
+        ArrayDeque<Job> jobs = queues.remove(downloadId);
+        if (jobs != null) {
+            queued -= jobs.size();
+        }
+    }
+
+    /** Drop the queued segments of a download and interrupt its in-flight transfers. */
+    public synchronized void cancel(Long downloadId) {
+        removeQueued(downloadId);
+        Set<Running> jobs = running.get(downloadId);
+        if (jobs != null) {
+            jobs.forEach(Running::cancel);
+        }
+    }
+
+    /** Lower or raise the connection limit of one download; never above the configured per-download limit. */
+    public synchronized void setDownloadLimit(Long downloadId, int limit) {
+        downloadLimits.put(downloadId, Math.max(1, Math.min(limit, maxPerDownload)));
+        dispatch();
+    }
+
+    public synchronized void clearDownloadLimit(Long downloadId) {
+        downloadLimits.remove(downloadId);
+    }
+
+    public synchronized int getDownloadLimit(Long downloadId) {
+        return downloadLimits.getOrDefault(downloadId, maxPerDownload);
+    }
+
+    public int getMaxPerDownload() {
+        return maxPerDownload;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queued;
+    }
+
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    public synchronized int getActiveCount(Long downloadId) {
+        return activePerDownload.getOrDefault(downloadId, 0);
+    }
+
+    // Start as many waiting jobs as the limits allow, taking one job per download per turn
+    private void dispatch() {
+        boolean started = true;
+        while (started && active < maxConnections && queued > 0) {
+            started = false;
+            Iterator<Map.Entry<Long, ArrayDeque<Job>>> it = queues.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, ArrayDeque<Job>> entry = it.next();
+                Job job = entry.getValue().peek();
+                if (job == null || !hasCapacity(job)) {
+                    continue;
+                }
+                entry.getValue().poll();
+                it.remove();
+                if (!entry.getValue().isEmpty()) {
+                    // Re-append so the next turn starts with the other downloads
+                    queues.put(entry.getKey(), entry.getValue());
+                }
+                queued--;
+                start(job);
+                started = true;
+                break;
+            }
+        }
+    }
+
+    private boolean hasCapacity(Job job) {
+        return activePerDownload.getOrDefault(job.downloadId(), 0)
+                        < downloadLimits.getOrDefault(job.downloadId(), maxPerDownload)
+                && activePerHost.getOrDefault(job.host(), 0) < maxPerHost;
+    }
+
+    private void start(Job job) {
+        active++;
+        activePerDownload.merge(job.downloadId(), 1, Integer::sum);
+        activePerHost.merge(job.host(), 1, Integer::sum);
+        // Registered while we still hold the lock, before finish() can run
+        Running self = new Running(job);
+        running.computeIfAbsent(job.downloadId(), id -> new HashSet<>()).add(self);
+        try {
+            executor.execute(() -> {
+                self.thread = Thread.currentThread();
+                try {
+                    if (!self.cancelled) {
+                        job.task().run();
+                    }
+                } finally {
+                    self.thread = null;
+                    finish(self);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            finish(self); // shutting down
+        }
+    }
+
+    private synchronized void finish(Running self) {
+        Job job = self.job;
+        active--;
+        decrement(activePerDownload, job.downloadId());
+        decrement(activePerHost, job.host());
+        Set<Running> jobs = running.get(job.downloadId());
+        if (jobs != null) {
+            jobs.remove(self);
+            if (jobs.isEmpty()) {
+                running.remove(job.downloadId());
+            }
+        }
+        dispatch();
+    }
+
+    private static <K> void decrement(Map<K, Integer> counts, K key) {
+        counts.computeIfPresent(key, (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    public static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
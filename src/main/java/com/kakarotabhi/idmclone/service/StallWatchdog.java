@@ -0,0 +1,107 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.DownloadProgress;
+import com.kakarotabhi.idmclone.downloader.SegmentProgress;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds segment connections that are open but hardly moving, which never error out of a read.
+ * <p>
+ * A connection is stalled when it has delivered nothing for {@code timeout-ms}, or when it
+ * runs below {@code min-relative-speed} times the average of the download's other
+ * connections. A stalled segment gets a hedge, a second connection racing for the same
+ * bytes, when the download has a connection to spare; otherwise the stalled connection is
+ * interrupted and reconnects from its last byte.
+ */
+@Component
+public class StallWatchdog {
+
+    public enum Action { HEDGE, RECONNECT }
+
+    @Autowired
+    private ProgressRegistry registry;
+
+    @Autowired
+    private DownloadService downloadService;
+
+    @Value("${download.stall.timeout-ms:30000}")
+    private long timeoutMs;
+
+    @Value("${download.stall.min-relative-speed:0.1}")
+    private double minRelativeSpeed;
+
+    // New connections are left alone this long while they ramp up
+    @Value("${download.stall.grace-ms:10000}")
+    private long graceMs;
+
+    @Value("${download.stall.action:HEDGE}")
+    private Action action;
+
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+
+    private record Sample(SegmentProgress segment, SegmentProgress.Writer writer, double rate) { }
+
+    @Scheduled(fixedDelayString = "${download.stall.check-interval-ms:3000}")
+    public void check() {
+        long now = System.nanoTime();
+        for (DownloadProgress download : registry.all()) {
+            if (download.getStatus() != DownloadStatus.DOWNLOADING) {
+                continue;
+            }
+            List<Sample> samples = new ArrayList<>();
+            double total = 0;
+            for (SegmentProgress segment : download.getSegments()) {
+                for (SegmentProgress.Writer writer : segment.getWriters()) {
+                    Sample sample = new Sample(segment, writer, writer.sampleRate(now));
+                    samples.add(sample);
+                    total += sample.rate();
+                }
+            }
+            for (Sample sample : samples) {
+                if (now - sample.writer().getAttachedNanos() < TimeUnit.MILLISECONDS.toNanos(graceMs)) {
+                    continue;
+                }
+                boolean silent = now - sample.writer().getLastProgressNanos() > TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+                // A hedged segment is already racing; only a silent connection there needs help
+                boolean racing = sample.segment().getWriters().size() > 1;
+                double othersAverage = samples.size() > 1 ? (total - sample.rate()) / (samples.size() - 1) : 0;
+                boolean slow = !racing && othersAverage > 0 && sample.rate() < minRelativeSpeed * othersAverage;
+                if (silent || slow) {
+                    onStall(download.getDownloadId(), sample, racing);
+                }
+            }
+        }
+    }
+
+    private void onStall(Long downloadId, Sample sample, boolean racing) {
+        stalls.incrementAndGet();
+        if (action == Action.HEDGE && !racing && downloadService.hedge(downloadId, sample.segment())) {
+            hedges.incrementAndGet();
+        } else if (sample.segment().interruptStalled(sample.writer())) {
+            reconnects.incrementAndGet();
+        }
+    }
+
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+}
@@ -0,0 +1,72 @@
+package com.kakarotabhi.idmclone.store;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes each checkpoint straight to {@code segment_info} in one batched JDBC update.
+ * <p>
+ * The update only ever moves {@code downloaded_bytes} up and {@code end_byte} down, so a
+ * checkpoint that races with a worker's own save or with a split never rolls either back.
+ * A journal left behind by the journal store is folded in at startup, which is also how an
+ * installation switches from one store to the other.
+ */
+@Component
+@ConditionalOnProperty(name = "download.progress.store", havingValue = "jdbc", matchIfMissing = true)
+@DependsOn("entityManagerFactory") // the replay needs the schema in place
+public class JdbcProgressStore implements ProgressStore {
+
+    private static final String UPDATE_SQL =
+            "update segment_info set downloaded_bytes = greatest(downloaded_bytes, ?), "
+                    + "end_byte = least(end_byte, ?) where id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${download.progress.journal.path:./download_progress.journal}")
+    private Path journalPath;
+
+    @PostConstruct
+    void recover() {
+        try {
+            update(jdbcTemplate, ProgressJournal.read(journalPath).values());
+            Files.deleteIfExists(journalPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replay progress journal " + journalPath, e);
+        }
+    }
+
+    @Override
+    public void write(List<SegmentOffsets> offsets) {
+        update(jdbcTemplate, offsets);
+    }
+
+    @Override
+    public void forget(Collection<Long> segmentIds) {
+        // nothing is held outside segment_info
+    }
+
+    static void update(JdbcTemplate jdbcTemplate, Collection<SegmentOffsets> offsets) {
+        if (offsets.isEmpty()) {
+            return;
+        }
+        List<Object[]> batch = new ArrayList<>(offsets.size());
+        for (SegmentOffsets o : offsets) {
+            batch.add(new Object[]{o.downloadedBytes(), o.endByte(), o.segmentId()});
+        }
+        jdbcTemplate.batchUpdate(UPDATE_SQL, batch);
+    }
+}
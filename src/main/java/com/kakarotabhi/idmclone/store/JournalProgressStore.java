@@ -0,0 +1,113 @@
+package com.kakarotabhi.idmclone.store;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends checkpoints to a {@link ProgressJournal} instead of updating rows, so a checkpoint
+ * costs one sequential write however many segments moved.
+ * <p>
+ * Compaction folds the latest offset of every journaled segment into {@code segment_info} in
+ * one batch and empties the journal. It runs on an interval, when the journal outgrows
+ * {@code compact-bytes} and at shutdown; after a crash the journal is replayed into the table
+ * at startup, before any download is resumed. Between compactions the offsets in
+ * {@code segment_info} lag behind, which only the stored-status path of a running download sees.
+ */
+@Component
+@ConditionalOnProperty(name = "download.progress.store", havingValue = "journal")
+@DependsOn("entityManagerFactory") // the replay needs the schema in place
+public class JournalProgressStore implements ProgressStore {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${download.progress.journal.path:./download_progress.journal}")
+    private Path journalPath;
+
+    @Value("${download.progress.journal.compact-bytes:16777216}")
+    private long compactBytes;
+
+    // fsync every append; without it a process crash loses nothing but an OS crash may
+    @Value("${download.progress.journal.sync:true}")
+    private boolean sync;
+
+    private ProgressJournal journal;
+    // segmentId -> latest journaled offsets, until the next compaction
+    private final Map<Long, SegmentOffsets> pending = new HashMap<>();
+
+    @PostConstruct
+    void open() {
+        try {
+            // Whatever a crash left behind goes to the table before the journal starts over
+            JdbcProgressStore.update(jdbcTemplate, ProgressJournal.read(journalPath).values());
+            journal = new ProgressJournal(journalPath, sync);
+            journal.truncate();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open progress journal " + journalPath, e);
+        }
+    }
+
+    @Override
+    public synchronized void write(List<SegmentOffsets> offsets) {
+        if (offsets.isEmpty()) {
+            return;
+        }
+        try {
+            journal.append(offsets);
+            offsets.forEach(o -> pending.put(o.segmentId(), o));
+            if (journal.size() > compactBytes) {
+                compact();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void forget(Collection<Long> segmentIds) {
+        if (segmentIds.isEmpty()) {
+            return;
+        }
+        try {
+            journal.appendTombstones(segmentIds);
+            segmentIds.forEach(pending::remove);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${download.progress.journal.compact-interval-ms:60000}")
+    public synchronized void compact() {
+        try {
+            if (journal.size() == 0) {
+                return;
+            }
+            JdbcProgressStore.update(jdbcTemplate, pending.values());
+            journal.truncate();
+            pending.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() throws IOException {
+        compact();
+        journal.close();
+    }
+}
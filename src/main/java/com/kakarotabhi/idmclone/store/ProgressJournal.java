@@ -0,0 +1,123 @@
+package com.kakarotabhi.idmclone.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only file of segment offsets.
+ * <p>
+ * Each record is {@code segmentId, downloadedBytes, endByte} followed by a CRC32C of the three;
+ * a negative {@code downloadedBytes} is a tombstone that cancels the segment's earlier records.
+ * Reading stops at the first torn or corrupt record, which can only be the tail of a write
+ * that was cut off by a crash.
+ */
+public class ProgressJournal implements Closeable {
+    static final int RECORD_BYTES = 3 * Long.BYTES + Integer.BYTES;
+    private static final long TOMBSTONE = -1;
+
+    private final boolean sync;
+    private final FileChannel channel;
+
+    public ProgressJournal(Path path, boolean sync) throws IOException {
+        this.sync = sync;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    public void append(List<SegmentOffsets> offsets) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(offsets.size() * RECORD_BYTES);
+        for (SegmentOffsets o : offsets) {
+            put(buffer, o.segmentId(), o.downloadedBytes(), o.endByte());
+        }
+        write(buffer);
+    }
+
+    public void appendTombstones(Collection<Long> segmentIds) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(segmentIds.size() * RECORD_BYTES);
+        for (Long id : segmentIds) {
+            put(buffer, id, TOMBSTONE, 0);
+        }
+        write(buffer);
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    /** Drop every record; the caller has put their latest values somewhere durable first. */
+    public void truncate() throws IOException {
+        channel.truncate(0);
+        if (sync) {
+            channel.force(true);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    private static void put(ByteBuffer buffer, long segmentId, long downloadedBytes, long endByte) {
+        int start = buffer.position();
+        buffer.putLong(segmentId).putLong(downloadedBytes).putLong(endByte);
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), start, 3 * Long.BYTES);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /** Latest offsets per segment in a journal file, tombstoned segments left out; empty when there is no file. */
+    public static Map<Long, SegmentOffsets> read(Path path) throws IOException {
+        Map<Long, SegmentOffsets> latest = new LinkedHashMap<>();
+        if (!Files.exists(path)) {
+            return latest;
+        }
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES * 4096);
+            CRC32C crc = new CRC32C();
+            while (true) {
+                int read = in.read(buffer);
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_BYTES) {
+                    int start = buffer.position();
+                    long segmentId = buffer.getLong();
+                    long downloadedBytes = buffer.getLong();
+                    long endByte = buffer.getLong();
+                    crc.reset();
+                    crc.update(buffer.array(), start, 3 * Long.BYTES);
+                    if (buffer.getInt() != (int) crc.getValue()) {
+                        return latest; // corrupt tail
+                    }
+                    if (downloadedBytes < 0) {
+                        latest.remove(segmentId);
+                    } else {
+                        latest.put(segmentId, new SegmentOffsets(segmentId, downloadedBytes, endByte));
+                    }
+                }
+                if (read == -1) {
+                    return latest; // anything left over is a torn tail
+                }
+                buffer.compact();
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.kakarotabhi.idmclone.store;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Where the checkpointer persists segment offsets, the one high-frequency write of the engine.
+ * <p>
+ * Download and segment metadata stay in JPA; a store only has to keep the latest
+ * {@link SegmentOffsets} of each segment durable and make them visible in {@code segment_info}
+ * by the time the application has started again. Selected with {@code download.progress.store}.
+ */
+public interface ProgressStore {
+
+    /** Persist the offsets of segments that moved since the previous call. */
+    void write(List<SegmentOffsets> offsets);
+
+    /** Drop what is stored for these segments; their offsets are about to be reset. */
+    void forget(Collection<Long> segmentIds);
+}
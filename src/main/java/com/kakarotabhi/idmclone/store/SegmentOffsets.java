@@ -0,0 +1,5 @@
+package com.kakarotabhi.idmclone.store;
+
+/** Checkpointed state of one segment: bytes on disk and the (possibly split) inclusive end. */
+public record SegmentOffsets(long segmentId, long downloadedBytes, long endByte) {
+}
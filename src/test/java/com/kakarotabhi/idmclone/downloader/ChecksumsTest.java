@@ -0,0 +1,62 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpHeaders;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ChecksumsTest {
+    // MD5 and SHA-256 of the empty string
+    private static final String MD5_B64 = "1B2M2Y8AsgTpgAmY7PhCfg==";
+    private static final String MD5_HEX = "d41d8cd98f00b204e9800998ecf8427e";
+    private static final String SHA_B64 = "47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=";
+    private static final String SHA_HEX = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private static HttpHeaders headers(Map<String, String> values) {
+        return HttpHeaders.of(values.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> List.of(e.getValue()))),
+                (name, value) -> true);
+    }
+
+    @Test
+    void prefersSha256InDigestHeaders() {
+        Optional<Checksums.Expected> expected = Checksums.fromHeaders(headers(Map.of(
+                "Repr-Digest", "md5=:" + MD5_B64 + ":, sha-256=:" + SHA_B64 + ":")));
+        assertEquals(Optional.of(new Checksums.Expected(Checksums.SHA_256, SHA_HEX)), expected);
+    }
+
+    @Test
+    void readsContentMd5() {
+        assertEquals(Optional.of(new Checksums.Expected(Checksums.MD5, MD5_HEX)),
+                Checksums.fromHeaders(headers(Map.of("Content-MD5", MD5_B64))));
+    }
+
+    @Test
+    void malformedValuesAreIgnored() {
+        assertEquals(Optional.empty(), Checksums.fromHeaders(headers(Map.of("Content-MD5", "not*base64"))));
+        // Valid base64, but not the length of an MD5
+        assertEquals(Optional.empty(), Checksums.fromHeaders(headers(Map.of("Content-MD5", "AAAA"))));
+        // A broken entry does not hide a good one
+        assertEquals(Optional.of(new Checksums.Expected(Checksums.MD5, MD5_HEX)), Checksums.fromHeaders(headers(Map.of(
+                "Digest", "sha-256=AAA=,md5=" + MD5_B64))));
+    }
+
+    @Test
+    void etagsAreNotTakenForChecksums() {
+        assertEquals(Optional.empty(), Checksums.fromHeaders(headers(Map.of("ETag", "\"" + MD5_HEX + "\""))));
+    }
+
+    @Test
+    void algorithmNamesAreCanonical() {
+        assertEquals(Checksums.SHA_256, Checksums.algorithm("sha256"));
+        assertEquals(Checksums.MD5, Checksums.algorithm("MD5"));
+        assertEquals(Checksums.CRC32C, Checksums.algorithm("crc32c"));
+        assertThrows(IllegalArgumentException.class, () -> Checksums.algorithm("sha1"));
+    }
+}
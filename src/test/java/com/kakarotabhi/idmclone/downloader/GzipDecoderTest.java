@@ -0,0 +1,134 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GzipDecoderTest {
+
+    // Collects what the decoder passes on
+    static class Collector implements ByteSink {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean finished;
+        boolean aborted;
+
+        @Override
+        public void write(ByteBuffer in) {
+            byte[] b = new byte[in.remaining()];
+            in.get(b);
+            bytes.writeBytes(b);
+        }
+
+        @Override
+        public void finish() {
+            finished = true;
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] randomText(int length) {
+        Random random = new Random(length);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    // Push the bytes in pieces of the given size, as they would arrive from the network
+    static void feed(ByteSink sink, byte[] data, int piece) throws IOException {
+        for (int i = 0; i < data.length; i += piece) {
+            sink.write(ByteBuffer.wrap(data, i, Math.min(piece, data.length - i)));
+        }
+    }
+
+    @Test
+    void decodesDataArrivingInAnyPieces() throws IOException {
+        byte[] data = randomText(300_000);
+        byte[] compressed = gzip(data);
+        for (int piece : new int[] {1, 7, 4096, compressed.length}) {
+            Collector out = new Collector();
+            GzipDecoder decoder = new GzipDecoder(out);
+            feed(decoder, compressed, piece);
+            decoder.finish();
+            assertArrayEquals(data, out.bytes.toByteArray());
+            assertTrue(out.finished);
+        }
+    }
+
+    @Test
+    void decodesConcatenatedMembersAndIgnoresTrailingZeros() throws IOException {
+        byte[] first = randomText(1000);
+        byte[] second = randomText(2000);
+        ByteArrayOutputStream in = new ByteArrayOutputStream();
+        in.writeBytes(gzip(first));
+        in.writeBytes(gzip(second));
+        in.writeBytes(new byte[512]);
+
+        Collector out = new Collector();
+        GzipDecoder decoder = new GzipDecoder(out);
+        feed(decoder, in.toByteArray(), 100);
+        decoder.finish();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.writeBytes(first);
+        expected.writeBytes(second);
+        assertArrayEquals(expected.toByteArray(), out.bytes.toByteArray());
+    }
+
+    @Test
+    void truncatedInputFailsOnFinish() throws IOException {
+        byte[] compressed = gzip(randomText(100_000));
+        // Cut in the header, the compressed body and the trailer
+        for (int length : new int[] {5, compressed.length / 2, compressed.length - 3}) {
+            Collector out = new Collector();
+            GzipDecoder decoder = new GzipDecoder(out);
+            feed(decoder, Arrays.copyOf(compressed, length), 1000);
+            assertThrows(IOException.class, decoder::finish);
+            assertTrue(out.aborted);
+            assertFalse(out.finished);
+        }
+    }
+
+    @Test
+    void emptyInputFailsOnFinish() {
+        Collector out = new Collector();
+        assertThrows(IOException.class, new GzipDecoder(out)::finish);
+        assertTrue(out.aborted);
+    }
+
+    @Test
+    void corruptTrailerIsRejected() throws IOException {
+        byte[] compressed = gzip(randomText(10_000));
+        compressed[compressed.length - 8] ^= 1; // CRC32
+        GzipDecoder decoder = new GzipDecoder(new Collector());
+        assertThrows(IOException.class, () -> feed(decoder, compressed, 512));
+    }
+
+    @Test
+    void otherDataIsRejected() {
+        GzipDecoder decoder = new GzipDecoder(new Collector());
+        assertThrows(IOException.class, () -> feed(decoder, "plain text".getBytes(), 4));
+    }
+}
@@ -0,0 +1,149 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentProgressTest {
+
+    @Test
+    void reserveStopsAtTheEndOfTheRange() {
+        SegmentProgress progress = new SegmentProgress(1L, 0, 0, 99, 0);
+        assertEquals(64, progress.reserve(0, 64));
+        assertEquals(36, progress.reserve(64, 64));
+        assertEquals(0, progress.reserve(100, 64));
+        assertEquals(0, progress.getRemainingBytes());
+    }
+
+    @Test
+    void advanceOnlyMovesForward() {
+        SegmentProgress progress = new SegmentProgress(1L, 0, 100, 199, 100);
+        assertEquals(50, progress.advance(150));
+        assertEquals(0, progress.advance(120));
+        assertEquals(150, progress.getFrontier());
+        assertEquals(50, progress.getDownloadedBytes());
+        assertFalse(progress.isComplete());
+        progress.advance(200);
+        assertTrue(progress.isComplete());
+    }
+
+    @Test
+    void splitGivesAwayTheBackHalfOfWhatIsNotReserved() {
+        SegmentProgress progress = new SegmentProgress(1L, 0, 0, 999, 0);
+        progress.reserve(0, 200);
+
+        long[] stolen = progress.split(100, 1);
+        assertArrayEquals(new long[] {600, 999}, stolen);
+        assertEquals(599, progress.getEndByte());
+        // A writer reaching the old end is cut off at the new one
+        assertEquals(0, progress.reserve(600, 64));
+        assertEquals(64, progress.reserve(500, 64));
+    }
+
+    @Test
+    void splitCutsAtAnAlignedOffsetWhenOneFits() {
+        SegmentProgress progress = new SegmentProgress(1L, 0, 0, 9999, 0);
+        assertArrayEquals(new long[] {8192, 9999}, progress.split(100, 4096));
+        assertEquals(8191, progress.getEndByte());
+
+        // No multiple of the alignment in the back half: cut in the middle
+        SegmentProgress small = new SegmentProgress(2L, 0, 0, 999, 0);
+        assertArrayEquals(new long[] {500, 999}, small.split(100, 4096));
+    }
+
+    @Test
+    void splitRefusesRangesBelowTwiceTheMinimum() {
+        SegmentProgress progress = new SegmentProgress(1L, 0, 0, 999, 0);
+        progress.reserve(0, 900);
+        assertNull(progress.split(100, 1));
+        assertEquals(999, progress.getEndByte());
+    }
+
+    @Test
+    void openEndedRangeIsClosedWhenTheStreamEnds() {
+        SegmentProgress progress = new SegmentProgress(1L, 0, 0, SegmentProgress.OPEN_END, 0);
+        progress.advance(500);
+        assertFalse(progress.isComplete());
+        progress.endAt(499);
+        assertTrue(progress.isComplete());
+    }
+
+    @Test
+    void hedgeThatFallsBehindIsSuperseded() throws Exception {
+        SegmentProgress progress = new SegmentProgress(1L, 0, 0, 9999, 0);
+        SegmentProgress.Writer original = progress.attach(0, false);
+
+        CountDownLatch attached = new CountDownLatch(1);
+        AtomicReference<SegmentProgress.Writer> hedge = new AtomicReference<>();
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            hedge.set(progress.attach(0, true));
+            attached.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        thread.start();
+        assertTrue(attached.await(5, TimeUnit.SECONDS));
+        assertTrue(progress.hasOtherWriters(original));
+
+        // Within the allowed lag nothing happens; beyond it the hedge is interrupted
+        progress.advance(original, 100, 1000);
+        assertFalse(hedge.get().isSuperseded());
+        progress.advance(original, 2000, 1000);
+        assertTrue(hedge.get().isSuperseded());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertFalse(progress.hasOtherWriters(original));
+        assertEquals(2000, progress.getFrontier());
+        thread.join();
+    }
+
+    @Test
+    void winnerSupersedesTheOthers() throws Exception {
+        SegmentProgress progress = new SegmentProgress(1L, 0, 0, 99, 0);
+        CountDownLatch attached = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        AtomicReference<SegmentProgress.Writer> loser = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            loser.set(progress.attach(0, false));
+            attached.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        thread.start();
+        assertTrue(attached.await(5, TimeUnit.SECONDS));
+
+        SegmentProgress.Writer winner = progress.attach(0, true);
+        progress.advance(winner, 100, Long.MAX_VALUE);
+        progress.supersedeOthers(winner);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(loser.get().isSuperseded());
+        assertFalse(winner.isSuperseded());
+        thread.join();
+    }
+
+    @Test
+    void detachClearsTheInterruptMeantForAStalledWriter() {
+        SegmentProgress progress = new SegmentProgress(1L, 0, 0, 99, 0);
+        SegmentProgress.Writer writer = progress.attach(0, false);
+        assertTrue(progress.interruptStalled(writer));
+        assertTrue(writer.isStalled());
+
+        progress.detach(writer);
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertFalse(progress.interruptStalled(writer));
+    }
+}
@@ -0,0 +1,152 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static com.kakarotabhi.idmclone.downloader.GzipDecoderTest.feed;
+import static com.kakarotabhi.idmclone.downloader.GzipDecoderTest.gzip;
+import static com.kakarotabhi.idmclone.downloader.GzipDecoderTest.randomText;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TarExtractorTest {
+
+    @TempDir
+    Path dir;
+
+    // Minimal ustar writer for building test archives
+    private static class Tar {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Tar file(String name, byte[] data) {
+            return entry(name, data, '0');
+        }
+
+        Tar directory(String name) {
+            return entry(name, new byte[0], '5');
+        }
+
+        Tar entry(String name, byte[] data, char type) {
+            byte[] h = new byte[512];
+            put(h, 0, name.getBytes(StandardCharsets.UTF_8), 100);
+            put(h, 100, octal(0644, 7), 8);
+            put(h, 124, octal(data.length, 11), 12);
+            put(h, 136, octal(0, 11), 12);
+            h[156] = (byte) type;
+            put(h, 257, "ustar\0".getBytes(StandardCharsets.US_ASCII), 6);
+            put(h, 263, "00".getBytes(StandardCharsets.US_ASCII), 2);
+            Arrays.fill(h, 148, 156, (byte) ' ');
+            long sum = 0;
+            for (byte b : h) {
+                sum += b & 0xff;
+            }
+            put(h, 148, octal(sum, 6), 7);
+            out.writeBytes(h);
+            out.writeBytes(data);
+            out.writeBytes(new byte[(512 - data.length % 512) % 512]);
+            return this;
+        }
+
+        byte[] bytes() {
+            ByteArrayOutputStream archive = new ByteArrayOutputStream();
+            archive.writeBytes(out.toByteArray());
+            archive.writeBytes(new byte[1024]);
+            return archive.toByteArray();
+        }
+
+        private static byte[] octal(long value, int digits) {
+            return String.format("%0" + digits + "o", value).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        private static void put(byte[] h, int offset, byte[] value, int length) {
+            System.arraycopy(value, 0, h, offset, Math.min(value.length, length));
+        }
+    }
+
+    @Test
+    void extractsFilesAndDirectoriesArrivingInPieces() throws IOException {
+        byte[] big = randomText(70_000);
+        byte[] archive = new Tar()
+                .directory("docs/")
+                .file("docs/readme.txt", "hello".getBytes())
+                .file("data/big.bin", big)
+                .file("empty", new byte[0])
+                .bytes();
+        for (int piece : new int[] {1, 511, 513, archive.length}) {
+            Path target = dir.resolve("out" + piece);
+            TarExtractor tar = new TarExtractor(target);
+            feed(tar, archive, piece);
+            tar.finish();
+            assertEquals("hello", Files.readString(target.resolve("docs/readme.txt")));
+            assertArrayEquals(big, Files.readAllBytes(target.resolve("data/big.bin")));
+            assertEquals(0, Files.size(target.resolve("empty")));
+        }
+    }
+
+    @Test
+    void longNamesComeFromGnuHeaders() throws IOException {
+        String name = "deep/" + "n".repeat(150) + ".txt";
+        byte[] archive = new Tar()
+                .entry("././@LongLink", (name + "\0").getBytes(StandardCharsets.UTF_8), 'L')
+                .file(name.substring(0, 99), "long".getBytes())
+                .bytes();
+        TarExtractor tar = new TarExtractor(dir);
+        feed(tar, archive, 100);
+        tar.finish();
+        assertEquals("long", Files.readString(dir.resolve(name)));
+    }
+
+    @Test
+    void truncatedArchiveFailsOnFinish() throws IOException {
+        byte[] archive = new Tar().file("a.bin", randomText(5000)).bytes();
+        // Cut in the header and in the data of the entry
+        for (int length : new int[] {300, 2000}) {
+            TarExtractor tar = new TarExtractor(dir.resolve("cut" + length));
+            feed(tar, Arrays.copyOf(archive, length), 64);
+            assertThrows(IOException.class, tar::finish);
+        }
+    }
+
+    @Test
+    void truncatedTarGzFailsOnFinish() throws IOException {
+        byte[] archive = gzip(new Tar().file("a.bin", randomText(50_000)).bytes());
+        GzipDecoder decoder = new GzipDecoder(new TarExtractor(dir));
+        feed(decoder, Arrays.copyOf(archive, archive.length / 2), 1000);
+        assertThrows(IOException.class, decoder::finish);
+    }
+
+    @Test
+    void entriesOutsideTheDirectoryAreRejected() throws IOException {
+        byte[] archive = new Tar().file("../escape.txt", "x".getBytes()).bytes();
+        Path target = dir.resolve("inside");
+        TarExtractor tar = new TarExtractor(target);
+        assertThrows(IOException.class, () -> feed(tar, archive, 512));
+        assertTrue(Files.notExists(dir.resolve("escape.txt")));
+    }
+
+    @Test
+    void absoluteNamesStayInsideTheDirectory() throws IOException {
+        byte[] archive = new Tar().file("/etc/passwd", "x".getBytes()).bytes();
+        TarExtractor tar = new TarExtractor(dir);
+        feed(tar, archive, 512);
+        tar.finish();
+        assertEquals("x", Files.readString(dir.resolve("etc/passwd")));
+    }
+
+    @Test
+    void damagedHeaderIsRejected() throws IOException {
+        byte[] archive = new Tar().file("a.txt", "abc".getBytes()).bytes();
+        archive[10] ^= 1;
+        TarExtractor tar = new TarExtractor(dir);
+        assertThrows(IOException.class, () -> feed(tar, archive, 512));
+    }
+}
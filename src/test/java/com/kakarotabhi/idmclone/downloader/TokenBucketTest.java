@@ -0,0 +1,93 @@
+package com.kakarotabhi.idmclone.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void unlimitedNeverWaits() {
+        TokenBucket bucket = new TokenBucket(0);
+        assertEquals(0, bucket.reserve(Long.MAX_VALUE / 2, 0));
+        assertEquals(0, bucket.reserve(1 << 20, 0));
+    }
+
+    @Test
+    void burstOfATenthOfASecondIsFree() {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        long now = 5 * SECOND;
+        assertEquals(0, bucket.reserve(100_000, now));
+        // The next tenth of a second's worth has to wait for it
+        assertEquals(SECOND / 10, bucket.reserve(100_000, now));
+    }
+
+    @Test
+    void burstIsAtLeastOneBuffer() {
+        TokenBucket bucket = new TokenBucket(1000);
+        assertEquals(0, bucket.reserve(64 * 1024, 0));
+        assertEquals(SECOND, bucket.reserve(1000, 0));
+    }
+
+    @Test
+    void waitsAddUpToTheRate() {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        long now = 0;
+        long waited = 0;
+        for (int i = 0; i < 20; i++) {
+            waited += bucket.reserve(100_000, now);
+        }
+        // Each caller waits for the ones before it: 0, 0.1, ... 1.9 seconds
+        assertEquals(19 * SECOND, waited);
+        // Two seconds of data, less the burst
+        assertEquals(SECOND * 19 / 10, bucket.reserve(0, now));
+        assertEquals(0, bucket.reserve(0, now + 2 * SECOND));
+    }
+
+    @Test
+    void idleTimeDoesNotBuildUpCredit() {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        bucket.reserve(100_000, 0);
+        long later = 60 * SECOND;
+        assertEquals(0, bucket.reserve(100_000, later));
+        assertEquals(SECOND / 10, bucket.reserve(100_000, later));
+    }
+
+    @Test
+    void firstReservationIsFreeWhateverTheClockReads() {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        assertEquals(0, bucket.reserve(1000, -42 * SECOND));
+    }
+
+    @Test
+    void rateChangesApplyToTheNextReservation() {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        bucket.reserve(100_000, 0);
+        bucket.setRate(0);
+        assertEquals(0, bucket.reserve(10_000_000, 0));
+        assertEquals(0, bucket.getRate());
+    }
+
+    @Test
+    void concurrentReservationsAreAllCounted() throws Exception {
+        TokenBucket bucket = new TokenBucket(1_000_000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(Thread.startVirtualThread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    bucket.reserve(1000, 0);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // 8 MB at 1 MB/s: the bucket is eight seconds ahead, less the burst
+        assertEquals(8 * SECOND - SECOND / 10, bucket.reserve(0, 0));
+    }
+}
@@ -0,0 +1,75 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.entity.HostProfile;
+import com.kakarotabhi.idmclone.repository.HostProfileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class AdaptiveConcurrencyTest {
+
+    private final HostProfileRepository profiles = mock(HostProfileRepository.class);
+    private final AdaptiveConcurrency adaptive = new AdaptiveConcurrency();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(adaptive, "hostProfileRepo", profiles);
+        ReflectionTestUtils.setField(adaptive, "maxConnections", 16);
+        ReflectionTestUtils.setField(adaptive, "minGain", 0.1);
+    }
+
+    @Test
+    void growsWhileThroughputRisesAndSettlesWhenItFlattens() throws Exception {
+        adaptive.register(1L, "http://example.com/f", 2);
+        long bytes = 0;
+        adaptive.evaluate(1L, bytes);
+        Thread.sleep(20);
+        assertEquals(3, adaptive.evaluate(1L, bytes += 1000));
+        Thread.sleep(20);
+        assertEquals(4, adaptive.evaluate(1L, bytes += 4_000_000));
+        Thread.sleep(20);
+        // No gain from the last connection: it is given back and the count is kept for the host
+        assertEquals(3, adaptive.evaluate(1L, bytes));
+        ArgumentCaptor<HostProfile> saved = ArgumentCaptor.forClass(HostProfile.class);
+        verify(profiles).save(saved.capture());
+        assertEquals("example.com", saved.getValue().getHost());
+        assertEquals(3, saved.getValue().getConnections());
+    }
+
+    @Test
+    void resumedDownloadIsNotJudgedOnTheTimeItWasStopped() throws Exception {
+        adaptive.register(1L, "http://example.com/f", 2);
+        adaptive.evaluate(1L, 0);
+        Thread.sleep(20);
+        assertEquals(3, adaptive.evaluate(1L, 1_000_000));
+
+        // Paused for a while, then resumed: the first sample after it only sets the baseline
+        adaptive.resetBaseline(1L);
+        assertEquals(3, adaptive.evaluate(1L, 1_000_000));
+        verify(profiles, never()).save(any());
+    }
+
+    @Test
+    void throttlingGivesUpAConnection() {
+        adaptive.register(1L, "http://example.com/f", 4);
+        adaptive.evaluate(1L, 0);
+        adaptive.onThrottled(1L);
+        assertEquals(3, adaptive.evaluate(1L, 0));
+        verify(profiles).save(any());
+    }
+
+    @Test
+    void connectionCountIsCappedAtRegistration() {
+        adaptive.register(1L, "http://example.com/f", 100);
+        assertEquals(16, adaptive.getTarget(1L));
+        adaptive.register(2L, "http://example.com/f", 0);
+        assertEquals(1, adaptive.getTarget(2L));
+    }
+}
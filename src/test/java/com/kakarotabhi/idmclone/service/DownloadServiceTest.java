@@ -0,0 +1,244 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.entity.Download;
+import com.kakarotabhi.idmclone.entity.SegmentInfo;
+import com.kakarotabhi.idmclone.enums.DownloadStatus;
+import com.kakarotabhi.idmclone.enums.SegmentStatus;
+import com.kakarotabhi.idmclone.repository.DownloadRepository;
+import com.kakarotabhi.idmclone.repository.SegmentInfoRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DownloadServiceTest {
+    private static final int BLOCK = 1 << 20;
+    private static final String URL = "http://example.com/f";
+
+    private final DownloadRepository downloadRepo = mock(DownloadRepository.class);
+    private final SegmentInfoRepository segmentRepo = mock(SegmentInfoRepository.class);
+    private final SegmentScheduler scheduler = mock(SegmentScheduler.class);
+    private final AdaptiveConcurrency adaptive = mock(AdaptiveConcurrency.class);
+    private final DownloadFiles files = mock(DownloadFiles.class);
+    private final IntegrityVerifier integrity = mock(IntegrityVerifier.class);
+    private final PostProcessor postProcessor = mock(PostProcessor.class);
+    private final MirrorSet mirrors = mock(MirrorSet.class);
+    private final ProgressRegistry registry = new ProgressRegistry();
+    private final DownloadService service = new DownloadService();
+
+    private final Download download = new Download();
+    // What the segment table holds for the download; saves add to it
+    private final List<SegmentInfo> segments = new ArrayList<>();
+    private final AtomicLong ids = new AtomicLong(100);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(registry, "events", mock(ApplicationEventPublisher.class));
+        ReflectionTestUtils.setField(registry, "windowSeconds", 10);
+        ReflectionTestUtils.setField(service, "downloadRepo", downloadRepo);
+        ReflectionTestUtils.setField(service, "segmentRepo", segmentRepo);
+        ReflectionTestUtils.setField(service, "scheduler", scheduler);
+        ReflectionTestUtils.setField(service, "adaptive", adaptive);
+        ReflectionTestUtils.setField(service, "files", files);
+        ReflectionTestUtils.setField(service, "registry", registry);
+        ReflectionTestUtils.setField(service, "checkpointer", mock(ProgressCheckpointer.class));
+        ReflectionTestUtils.setField(service, "governor", mock(BandwidthGovernor.class));
+        ReflectionTestUtils.setField(service, "http", mock(HttpTransport.class));
+        ReflectionTestUtils.setField(service, "retries", mock(RetryPolicy.class));
+        ReflectionTestUtils.setField(service, "integrity", integrity);
+        ReflectionTestUtils.setField(service, "metrics", mock(DownloadMetrics.class));
+        ReflectionTestUtils.setField(service, "mirrors", mirrors);
+        ReflectionTestUtils.setField(service, "postProcessor", postProcessor);
+        ReflectionTestUtils.setField(service, "minSplitBytes", (long) BLOCK);
+
+        download.setId(1L);
+        download.setUrl(URL);
+        download.setFileName("/tmp/f");
+        download.setTotalBytes(64L * BLOCK);
+        download.setAdaptive(true);
+        download.setStatus(DownloadStatus.DOWNLOADING);
+        when(downloadRepo.findById(1L)).thenReturn(Optional.of(download));
+        when(segmentRepo.findByDownloadId(1L)).thenAnswer(inv -> List.copyOf(segments));
+        when(segmentRepo.save(any())).thenAnswer(inv -> {
+            SegmentInfo seg = inv.getArgument(0);
+            if (seg.getId() == null) {
+                seg.setId(ids.incrementAndGet());
+                segments.add(seg);
+            }
+            return seg;
+        });
+        when(files.getBlockSize()).thenReturn(BLOCK);
+        when(mirrors.acquire(download)).thenReturn(URL);
+    }
+
+    private SegmentInfo segment(long start, long end, long downloaded, SegmentStatus status) {
+        SegmentInfo seg = new SegmentInfo();
+        seg.setSegmentIndex(segments.size());
+        seg.setStartByte(start);
+        seg.setEndByte(end);
+        seg.setDownloadedBytes(downloaded);
+        seg.setStatus(status);
+        seg.setDownload(download);
+        return segmentRepo.save(seg);
+    }
+
+    private void complete() {
+        ReflectionTestUtils.invokeMethod(service, "checkAndCompleteDownload", download);
+    }
+
+    @Test
+    void concurrentCompletionsVerifyAndCompleteOnce() throws Exception {
+        segment(0, 32L * BLOCK - 1, 32L * BLOCK, SegmentStatus.COMPLETED);
+        segment(32L * BLOCK, 64L * BLOCK - 1, 32L * BLOCK, SegmentStatus.COMPLETED);
+        registry.open(download, segments, DownloadStatus.DOWNLOADING);
+        CountDownLatch verifying = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        when(integrity.verify(1L)).thenAnswer(inv -> {
+            verifying.countDown();
+            // Bounded, so a second verifier fails the test instead of hanging it
+            finish.await(5, TimeUnit.SECONDS);
+            return new IntegrityVerifier.Result(true, "ab");
+        });
+
+        // The last two segments finish together: the first one verifies, the second leaves it to it
+        CompletableFuture<Void> first = CompletableFuture.runAsync(this::complete);
+        assertTrue(verifying.await(5, TimeUnit.SECONDS));
+        complete();
+        finish.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        // Settled: a late caller finds nothing to do
+        complete();
+
+        verify(integrity, times(1)).verify(1L);
+        verify(downloadRepo, times(1)).updateStatus(eq(1L), eq(DownloadStatus.COMPLETED), any());
+        verify(postProcessor, times(1)).finish(download);
+        verify(downloadRepo).updateContentSha256(1L, "ab");
+        assertEquals(DownloadStatus.COMPLETED, registry.get(1L).getStatus());
+    }
+
+    @Test
+    void pausedWhileVerifyingIsNotCompleted() throws Exception {
+        segment(0, 64L * BLOCK - 1, 64L * BLOCK, SegmentStatus.COMPLETED);
+        registry.open(download, segments, DownloadStatus.DOWNLOADING);
+        CountDownLatch verifying = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        when(integrity.verify(1L)).thenAnswer(inv -> {
+            verifying.countDown();
+            finish.await(5, TimeUnit.SECONDS);
+            return new IntegrityVerifier.Result(true, "ab");
+        });
+
+        CompletableFuture<Void> completion = CompletableFuture.runAsync(this::complete);
+        assertTrue(verifying.await(5, TimeUnit.SECONDS));
+        service.pauseDownload(1L);
+        finish.countDown();
+        completion.get(5, TimeUnit.SECONDS);
+
+        verify(downloadRepo, never()).updateStatus(eq(1L), eq(DownloadStatus.COMPLETED), any());
+        verify(postProcessor, never()).finish(any());
+        assertEquals(DownloadStatus.PAUSED, registry.get(1L).getStatus());
+    }
+
+    @Test
+    void stolenHalfStartsOnABlockBoundary() {
+        // Neither the range nor the offset is aligned
+        long end = 12_345 + 40L * BLOCK + 777;
+        SegmentInfo running = segment(12_345, end, 3L * BLOCK + 5, SegmentStatus.DOWNLOADING);
+        registry.open(download, segments, DownloadStatus.DOWNLOADING);
+        when(adaptive.isManaged(1L)).thenReturn(true);
+        when(adaptive.evaluate(eq(1L), anyLong())).thenReturn(2);
+        when(scheduler.getActiveCount(1L)).thenReturn(1);
+
+        // One connection short and nothing pending: the running segment is split
+        service.adjustConnections();
+
+        assertEquals(2, segments.size());
+        SegmentInfo stolen = segments.get(1);
+        assertEquals(0, stolen.getStartByte() % BLOCK);
+        assertEquals(end, stolen.getEndByte());
+        assertEquals(1, stolen.getSegmentIndex());
+        assertEquals(SegmentStatus.DOWNLOADING, stolen.getStatus());
+        // Cut at the first boundary past the middle of what was left
+        long frontier = running.getStartByte() + running.getDownloadedBytes();
+        long middle = frontier + (end - frontier + 1) / 2;
+        assertTrue(stolen.getStartByte() >= middle && stolen.getStartByte() < middle + BLOCK);
+        // The victim gives the range up before the new segment is queued
+        verify(segmentRepo).updateEndByte(running.getId(), stolen.getStartByte() - 1);
+        assertEquals(stolen.getStartByte() - 1, registry.segment(1L, running).getEndByte());
+        verify(scheduler).submit(eq(1L), eq(URL), any());
+    }
+
+    @Test
+    void segmentsBelowTwiceTheSplitSizeAreNotSplit() {
+        segment(0, 2L * BLOCK - 2, 0, SegmentStatus.DOWNLOADING);
+        registry.open(download, segments, DownloadStatus.DOWNLOADING);
+        when(adaptive.isManaged(1L)).thenReturn(true);
+        when(adaptive.evaluate(eq(1L), anyLong())).thenReturn(2);
+        when(scheduler.getActiveCount(1L)).thenReturn(1);
+
+        service.adjustConnections();
+
+        assertEquals(1, segments.size());
+        verify(segmentRepo, never()).updateEndByte(any(), anyLong());
+        verify(scheduler, never()).submit(any(), any(), any());
+    }
+
+    @Test
+    void pauseStopsTheDownloadAndResumeRequeuesWhatIsLeft() {
+        segment(0, 16L * BLOCK - 1, 16L * BLOCK, SegmentStatus.COMPLETED);
+        segment(16L * BLOCK, 48L * BLOCK - 1, 5L * BLOCK, SegmentStatus.DOWNLOADING);
+        segment(48L * BLOCK, 64L * BLOCK - 1, 0, SegmentStatus.PENDING);
+        registry.open(download, segments, DownloadStatus.DOWNLOADING);
+        when(adaptive.isManaged(1L)).thenReturn(true);
+        when(adaptive.getTarget(1L)).thenReturn(2);
+
+        service.pauseDownload(1L);
+        assertEquals(DownloadStatus.PAUSED, download.getStatus());
+        assertEquals(DownloadStatus.PAUSED, registry.get(1L).getStatus());
+        verify(scheduler).cancel(1L);
+
+        // A paused download is neither sampled nor given connections
+        service.adjustConnections();
+        verify(adaptive, never()).evaluate(any(), anyLong());
+        verify(scheduler, never()).submit(any(), any(), any());
+
+        service.resumeDownload(1L);
+        assertEquals(DownloadStatus.DOWNLOADING, download.getStatus());
+        assertEquals(DownloadStatus.DOWNLOADING, registry.get(1L).getStatus());
+        verify(scheduler, times(2)).submit(eq(1L), eq(URL), any());
+        assertEquals(SegmentStatus.COMPLETED, segments.get(0).getStatus());
+        assertEquals(SegmentStatus.DOWNLOADING, segments.get(1).getStatus());
+        assertEquals(SegmentStatus.DOWNLOADING, segments.get(2).getStatus());
+        // The time it was stopped is not held against its throughput
+        verify(adaptive).resetBaseline(1L);
+        verify(scheduler).setDownloadLimit(1L, 2);
+        // Segments are still running: nothing to verify yet
+        verify(integrity, never()).verify(any());
+    }
+
+    @Test
+    void onlyAPausedDownloadIsResumed() {
+        assertThrows(IllegalStateException.class, () -> service.resumeDownload(1L));
+        verify(scheduler, never()).submit(any(), any(), any());
+    }
+}
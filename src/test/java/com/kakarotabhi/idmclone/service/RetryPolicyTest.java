@@ -0,0 +1,154 @@
+package com.kakarotabhi.idmclone.service;
+
+import com.kakarotabhi.idmclone.downloader.HttpStatusException;
+import com.kakarotabhi.idmclone.downloader.RemoteChangedException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+    private static final String HOST = "example.com";
+
+    private final RetryPolicy retries = new RetryPolicy();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(retries, "maxAttempts", 5);
+        ReflectionTestUtils.setField(retries, "initialBackoffMs", 10L);
+        ReflectionTestUtils.setField(retries, "maxBackoffMs", 40L);
+        ReflectionTestUtils.setField(retries, "failureThreshold", 3);
+        ReflectionTestUtils.setField(retries, "openMs", 200L);
+    }
+
+    @Test
+    void networkErrorsServerErrorsAndThrottlingAreRetried() {
+        assertTrue(retries.isRetryable(new IOException("Connection reset")));
+        assertTrue(retries.isRetryable(new HttpTimeoutException("timed out")));
+        assertTrue(retries.isRetryable(new HttpStatusException(503, "Unavailable")));
+        assertTrue(retries.isRetryable(new HttpStatusException(500, "Error")));
+        assertTrue(retries.isRetryable(new HttpStatusException(429, "Too Many Requests")));
+        assertTrue(retries.isRetryable(new HttpStatusException(408, "Request Timeout")));
+    }
+
+    @Test
+    void stopsAndClientErrorsAreNot() {
+        assertFalse(retries.isRetryable(new HttpStatusException(404, "Not Found")));
+        assertFalse(retries.isRetryable(new HttpStatusException(403, "Forbidden")));
+        assertFalse(retries.isRetryable(new InterruptedIOException()));
+        assertFalse(retries.isRetryable(new ClosedByInterruptException()));
+        assertFalse(retries.isRetryable(new ClosedChannelException()));
+        assertFalse(retries.isRetryable(new NoSuchFileException("a.bin")));
+        assertFalse(retries.isRetryable(new RemoteChangedException("ETag changed")));
+    }
+
+    @Test
+    void backoffStaysUnderAGrowingCap() throws IOException {
+        long[] caps = {10, 20, 40, 40, 40};
+        for (int round = 0; round < 20; round++) {
+            for (int attempt = 1; attempt <= caps.length; attempt++) {
+                long waited = retries.backoff(HOST, attempt);
+                assertTrue(waited >= 0 && waited <= TimeUnit.MILLISECONDS.toNanos(caps[attempt - 1]),
+                        "attempt " + attempt + " waited " + waited);
+            }
+        }
+        // Far past the shift that would overflow, the cap is still the maximum
+        assertTrue(retries.backoff(HOST, 100) <= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(101L, retries.getHostStats().get(HOST).get("retries"));
+    }
+
+    @Test
+    void backoffIsInterruptible() {
+        ReflectionTestUtils.setField(retries, "initialBackoffMs", 60_000L);
+        ReflectionTestUtils.setField(retries, "maxBackoffMs", 60_000L);
+        Thread.currentThread().interrupt();
+        try {
+            // The sleep may come out as zero; only a non-zero one can be interrupted
+            for (int i = 0; i < 10; i++) {
+                retries.backoff(HOST, 1);
+            }
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+            return;
+        }
+        Thread.interrupted();
+        throw new AssertionError("backoff was never interrupted");
+    }
+
+    @Test
+    void breakerOpensAfterTheThresholdAndLetsOneProbeThrough() throws Exception {
+        retries.onFailure(HOST);
+        retries.onFailure(HOST);
+        assertEquals("CLOSED", breaker());
+        assertEquals(0, retries.awaitHost(HOST));
+
+        retries.onFailure(HOST);
+        assertEquals("OPEN", breaker());
+        long waited = retries.awaitHost(HOST);
+        assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(100), "waited " + waited);
+        assertEquals("HALF_OPEN", breaker());
+
+        // While the probe is out, everyone else keeps waiting
+        CompletableFuture<Long> other = CompletableFuture.supplyAsync(() -> {
+            try {
+                return retries.awaitHost(HOST);
+            } catch (InterruptedIOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        assertFalse(other.isDone());
+
+        retries.onSuccess(HOST);
+        other.get(5, TimeUnit.SECONDS);
+        assertEquals("CLOSED", breaker());
+        assertEquals(0, retries.awaitHost(HOST));
+    }
+
+    @Test
+    void failedProbeOpensTheBreakerAgain() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            retries.onFailure(HOST);
+        }
+        retries.awaitHost(HOST);
+        retries.onFailure(HOST);
+        assertEquals("OPEN", breaker());
+        assertEquals(4L, retries.getHostStats().get(HOST).get("failures"));
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        retries.onFailure(HOST);
+        retries.onFailure(HOST);
+        retries.onSuccess(HOST);
+        retries.onFailure(HOST);
+        retries.onFailure(HOST);
+        assertEquals("CLOSED", breaker());
+    }
+
+    @Test
+    void hostsHaveSeparateBreakers() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            retries.onFailure(HOST);
+        }
+        assertEquals("OPEN", breaker());
+        assertEquals(0, retries.awaitHost("other.com"));
+        assertEquals("CLOSED", retries.getHostStats().get("other.com").get("breaker"));
+    }
+
+    private Object breaker() {
+        return retries.getHostStats().get(HOST).get("breaker");
+    }
+}
@@ -0,0 +1,167 @@
+package com.kakarotabhi.idmclone.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentSchedulerTest {
+
+    private final SegmentScheduler scheduler = new SegmentScheduler();
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        gate.countDown();
+        scheduler.shutdown();
+    }
+
+    private void limits(int maxConnections, int maxPerHost, int maxPerDownload) {
+        ReflectionTestUtils.setField(scheduler, "maxConnections", maxConnections);
+        ReflectionTestUtils.setField(scheduler, "maxPerHost", maxPerHost);
+        ReflectionTestUtils.setField(scheduler, "maxPerDownload", maxPerDownload);
+    }
+
+    // A task that holds its connection until the gate opens or it is interrupted
+    private Runnable blocking(AtomicInteger finished) {
+        return blocking(new AtomicInteger(), finished);
+    }
+
+    private Runnable blocking(AtomicInteger started, AtomicInteger finished) {
+        return () -> {
+            started.incrementAndGet();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                // cancelled
+            }
+            finished.incrementAndGet();
+        };
+    }
+
+    @Test
+    void globalLimitQueuesTheRest() throws Exception {
+        limits(2, 16, 8);
+        AtomicInteger finished = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            scheduler.submit((long) i, "http://host" + i + "/f", blocking(finished));
+        }
+        assertEquals(2, scheduler.getActiveCount());
+        assertEquals(3, scheduler.getQueueDepth());
+
+        gate.countDown();
+        await(() -> finished.get() == 5 && scheduler.getActiveCount() == 0);
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    @Test
+    void perHostLimitAppliesAcrossDownloads() throws Exception {
+        limits(64, 1, 8);
+        AtomicInteger finished = new AtomicInteger();
+        scheduler.submit(1L, "http://Example.com/a", blocking(finished));
+        scheduler.submit(2L, "http://example.com/b", blocking(finished));
+        scheduler.submit(3L, "http://other.com/c", blocking(finished));
+        assertEquals(2, scheduler.getActiveCount());
+        assertEquals(0, scheduler.getActiveCount(2L));
+        assertEquals(1, scheduler.getQueueDepth());
+
+        gate.countDown();
+        await(() -> finished.get() == 3);
+    }
+
+    @Test
+    void perDownloadLimitCanBeLoweredButNotRaisedPastTheConfiguredOne() {
+        limits(64, 16, 4);
+        AtomicInteger finished = new AtomicInteger();
+        scheduler.setDownloadLimit(1L, 2);
+        for (int i = 0; i < 5; i++) {
+            scheduler.submit(1L, "http://host/f", blocking(finished));
+        }
+        assertEquals(2, scheduler.getActiveCount(1L));
+
+        scheduler.setDownloadLimit(1L, 100);
+        assertEquals(4, scheduler.getDownloadLimit(1L));
+        assertEquals(4, scheduler.getActiveCount(1L));
+        assertEquals(1, scheduler.getQueueDepth());
+    }
+
+    @Test
+    void waitingDownloadsTakeTurns() throws Exception {
+        limits(1, 16, 8);
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch first = new CountDownLatch(1);
+        scheduler.submit(1L, "http://host/f", () -> {
+            order.add("a1");
+            try {
+                first.await();
+            } catch (InterruptedException e) {
+                // not expected
+            }
+        });
+        scheduler.submit(1L, "http://host/f", () -> order.add("a2"));
+        scheduler.submit(1L, "http://host/f", () -> order.add("a3"));
+        scheduler.submit(2L, "http://host/g", () -> order.add("b1"));
+
+        first.countDown();
+        await(() -> order.size() == 4);
+        assertEquals(List.of("a1", "a2", "b1", "a3"), order);
+    }
+
+    @Test
+    void cancelInterruptsRunningAndDropsQueued() throws Exception {
+        limits(2, 16, 8);
+        AtomicInteger started = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        AtomicBoolean queuedRan = new AtomicBoolean();
+        scheduler.submit(1L, "http://host/f", blocking(started, finished));
+        scheduler.submit(1L, "http://host/f", blocking(started, finished));
+        scheduler.submit(1L, "http://host/f", () -> queuedRan.set(true));
+        assertEquals(1, scheduler.getQueueDepth());
+        await(() -> started.get() == 2);
+
+        scheduler.cancel(1L);
+        await(() -> finished.get() == 2 && scheduler.getActiveCount() == 0);
+        assertEquals(0, scheduler.getQueueDepth());
+        assertFalse(queuedRan.get());
+    }
+
+    @Test
+    void cancelledJobsGiveTheirSlotsBack() throws Exception {
+        limits(1, 16, 8);
+        // Many rounds of submit and cancel, some cancelled before their thread runs the task
+        for (int i = 0; i < 200; i++) {
+            scheduler.submit(1L, "http://host/f", () -> { });
+            scheduler.cancel(1L);
+        }
+        await(() -> scheduler.getActiveCount() == 0);
+
+        AtomicBoolean ran = new AtomicBoolean();
+        scheduler.submit(2L, "http://host/f", () -> ran.set(true));
+        await(ran::get);
+    }
+
+    @Test
+    void hostOfIgnoresCaseAndBadUrls() {
+        assertEquals("example.com", SegmentScheduler.hostOf("https://EXAMPLE.com:8443/x"));
+        assertEquals("", SegmentScheduler.hostOf("not a url"));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.kakarotabhi.idmclone.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProgressJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayKeepsTheLatestOffsetsPerSegment() throws IOException {
+        Path path = dir.resolve("progress.journal");
+        try (ProgressJournal journal = new ProgressJournal(path, false)) {
+            journal.append(List.of(new SegmentOffsets(1, 100, 999), new SegmentOffsets(2, 0, 1999)));
+            journal.append(List.of(new SegmentOffsets(1, 300, 499), new SegmentOffsets(3, 50, 2999)));
+            journal.append(List.of(new SegmentOffsets(2, 700, 1999)));
+        }
+        Map<Long, SegmentOffsets> latest = ProgressJournal.read(path);
+        assertEquals(Map.of(
+                1L, new SegmentOffsets(1, 300, 499),
+                2L, new SegmentOffsets(2, 700, 1999),
+                3L, new SegmentOffsets(3, 50, 2999)), latest);
+    }
+
+    @Test
+    void tombstoneDropsEarlierRecordsButNotLaterOnes() throws IOException {
+        Path path = dir.resolve("progress.journal");
+        try (ProgressJournal journal = new ProgressJournal(path, true)) {
+            journal.append(List.of(new SegmentOffsets(1, 100, 999), new SegmentOffsets(2, 200, 999)));
+            journal.appendTombstones(List.of(1L, 2L));
+            journal.append(List.of(new SegmentOffsets(2, 10, 99)));
+        }
+        assertEquals(Map.of(2L, new SegmentOffsets(2, 10, 99)), ProgressJournal.read(path));
+    }
+
+    @Test
+    void tornTailIsIgnored() throws IOException {
+        Path path = dir.resolve("progress.journal");
+        try (ProgressJournal journal = new ProgressJournal(path, false)) {
+            journal.append(List.of(new SegmentOffsets(1, 100, 999)));
+            journal.append(List.of(new SegmentOffsets(1, 500, 999)));
+        }
+        // Cut the last record short, as a crash in the middle of the write would
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(file.length() - 5);
+        }
+        assertEquals(Map.of(1L, new SegmentOffsets(1, 100, 999)), ProgressJournal.read(path));
+    }
+
+    @Test
+    void replayStopsAtACorruptRecord() throws IOException {
+        Path path = dir.resolve("progress.journal");
+        try (ProgressJournal journal = new ProgressJournal(path, false)) {
+            journal.append(List.of(new SegmentOffsets(1, 100, 999)));
+            journal.append(List.of(new SegmentOffsets(2, 200, 999)));
+            journal.append(List.of(new SegmentOffsets(3, 300, 999)));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            long offset = ProgressJournal.RECORD_BYTES + 10;
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 0xff);
+        }
+        assertEquals(Map.of(1L, new SegmentOffsets(1, 100, 999)), ProgressJournal.read(path));
+    }
+
+    @Test
+    void replayReadsPastItsBuffer() throws IOException {
+        Path path = dir.resolve("progress.journal");
+        int records = 10_000;
+        try (ProgressJournal journal = new ProgressJournal(path, false)) {
+            List<SegmentOffsets> batch = new ArrayList<>();
+            for (int i = 0; i < records; i++) {
+                batch.add(new SegmentOffsets(i % 7, i, 1_000_000));
+            }
+            journal.append(batch);
+            assertEquals((long) records * ProgressJournal.RECORD_BYTES, journal.size());
+        }
+        Map<Long, SegmentOffsets> latest = ProgressJournal.read(path);
+        assertEquals(7, latest.size());
+        for (long id = 0; id < 7; id++) {
+            long last = (records - 1) - ((records - 1 - id) % 7);
+            assertEquals(new SegmentOffsets(id, last, 1_000_000), latest.get(id));
+        }
+    }
+
+    @Test
+    void truncateEmptiesTheJournal() throws IOException {
+        Path path = dir.resolve("progress.journal");
+        try (ProgressJournal journal = new ProgressJournal(path, true)) {
+            journal.append(List.of(new SegmentOffsets(1, 100, 999)));
+            journal.truncate();
+            assertEquals(0, journal.size());
+            journal.append(List.of(new SegmentOffsets(2, 5, 9)));
+        }
+        assertEquals(Map.of(2L, new SegmentOffsets(2, 5, 9)), ProgressJournal.read(path));
+    }
+
+    @Test
+    void missingFileReadsAsEmpty() throws IOException {
+        Path path = dir.resolve("absent.journal");
+        assertTrue(ProgressJournal.read(path).isEmpty());
+        assertTrue(Files.notExists(path));
+    }
+}